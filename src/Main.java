@@ -1,36 +1,79 @@
+import graf.ContractionHierarchy;
 import graf.Graph;
 import graf.GraphBuilder;
 import graf.RouteFinder;
-import stanice.Station;
+import graf.RouteMatrix;
 import java.io.IOException;
 import java.time.LocalTime;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Scanner;
-import java.util.stream.Collectors;
 
 /**
  * Main class to input starting and ending cities and find optimal routes.
+ * With --pareto a single multi-criteria search replaces the three per-criterion searches.
+ * With --matrix FILE the time, cost and transfers between all pairs of cities are written to FILE as CSV.
+ * With --hierarchy FILE cheapest routes come from a contraction hierarchy kept in FILE (built on first use).
+ * With --parallel the searches for all criteria run at the same time.
+ * With --timetable FILE the graph is loaded from a binary timetable instead of transport_data.json.
  */
 public class Main {
     public static void main(String[] args) {
-        // Step 1: Load JSON file
-        String jsonFile = "transport_data.json";
-        System.out.println("Using pre-generated JSON file: " + jsonFile);
+        // Step 1: Load JSON file, or a binary timetable made by BinaryTimetable
+        int timetableOption = Arrays.asList(args).indexOf("--timetable");
+        if (timetableOption >= 0 && timetableOption + 1 >= args.length) {
+            System.out.println("Usage: --timetable <transport_data.ttb>");
+            return;
+        }
+        String dataFile = timetableOption >= 0 ? args[timetableOption + 1] : "transport_data.json";
+        System.out.println("Using pre-generated " + (timetableOption >= 0 ? "binary timetable: " : "JSON file: ") + dataFile);
 
         // Step 2: Build the graph
         GraphBuilder builder = new GraphBuilder();
         Graph graph;
+        long loadStart = System.nanoTime();
         try {
-            graph = builder.buildFromJson(jsonFile);
+            graph = timetableOption >= 0 ? builder.buildFromBinary(dataFile) : builder.buildFromJson(dataFile);
             System.out.println("Graph constructed with " + graph.getStations().size() + " stations and " +
-                    graph.getStations().stream().mapToInt(s -> graph.getConnections(s).size()).sum() + " connections.");
+                    graph.getCompactGraph().getEdgeCount() + " connections in "
+                    + (System.nanoTime() - loadStart) / 1_000_000 + " ms.");
         } catch (IOException e) {
             System.err.println("Error building graph: " + e.getMessage());
             return;
         }
 
+        int hierarchyOption = Arrays.asList(args).indexOf("--hierarchy");
+        if (hierarchyOption >= 0) {
+            if (hierarchyOption + 1 >= args.length) {
+                System.out.println("Usage: --hierarchy <hierarchy.bin>");
+                return;
+            }
+            long start = System.nanoTime();
+            ContractionHierarchy hierarchy = builder.prepareCostHierarchy(graph, args[hierarchyOption + 1]);
+            System.out.printf("Contraction hierarchy with %d shortcuts ready in %d ms.%n",
+                    hierarchy.getShortcutCount(), (System.nanoTime() - start) / 1_000_000);
+        }
+
+        int matrixOption = Arrays.asList(args).indexOf("--matrix");
+        if (matrixOption >= 0) {
+            if (matrixOption + 1 >= args.length) {
+                System.out.println("Usage: --matrix <output.csv>");
+                return;
+            }
+            long start = System.nanoTime();
+            RouteMatrix matrix = new RouteFinder().findAllPairs(graph, LocalTime.of(8, 0));
+            try {
+                matrix.writeCsv(args[matrixOption + 1]);
+            } catch (IOException e) {
+                System.err.println("Error writing matrix: " + e.getMessage());
+                return;
+            }
+            System.out.printf("Wrote %d x %d city matrix to %s in %d ms.%n", matrix.getCityCount(),
+                    matrix.getCityCount(), args[matrixOption + 1], (System.nanoTime() - start) / 1_000_000);
+            return;
+        }
+
         // Step 3: Input starting and ending cities
         Scanner scanner = new Scanner(System.in);
         System.out.print("Enter starting city (e.g., G_0_0): ");
@@ -39,19 +82,12 @@ public class Main {
         String endCity = scanner.nextLine().trim();
         scanner.close();
 
-        // Step 4: Map cities to stations
-        Station[] sourceStations = new Station[2];
-        Station[] destStations = new Station[2];
-        sourceStations[0] = builder.getBusStationMap().get(startCity);
-        sourceStations[1] = builder.getTrainStationMap().get(startCity);
-        destStations[0] = builder.getBusStationMap().get(endCity);
-        destStations[1] = builder.getTrainStationMap().get(endCity);
-
-        if (sourceStations[0] == null || sourceStations[1] == null) {
+        // Step 4: Validate cities
+        if (graph.getCityStations(startCity).isEmpty()) {
             System.out.println("Invalid starting city: " + startCity);
             return;
         }
-        if (destStations[0] == null || destStations[1] == null) {
+        if (graph.getCityStations(endCity).isEmpty()) {
             System.out.println("Invalid ending city: " + endCity);
             return;
         }
@@ -60,42 +96,56 @@ public class Main {
         RouteFinder routeFinder = new RouteFinder();
         LocalTime startTime = LocalTime.of(8, 0);
 
-        // Shortest time
-        System.out.println("\nTop 5 shortest time routes from " + startCity + " to " + endCity + ":");
-        List<RouteFinder.Route> timeRoutes = findAllRoutes(graph, routeFinder, sourceStations, destStations, RouteFinder.Criterion.TIME, startTime, 5);
-        printRoutes(timeRoutes);
-
-        // Lowest cost
-        System.out.println("\nTop 5 lowest cost routes from " + startCity + " to " + endCity + ":");
-        List<RouteFinder.Route> costRoutes = findAllRoutes(graph, routeFinder, sourceStations, destStations, RouteFinder.Criterion.COST, startTime, 5);
-        printRoutes(costRoutes);
+        if (Arrays.asList(args).contains("--pareto")) {
+            // One multi-criteria search; every criterion picks from the same Pareto front
+            List<RouteFinder.Route> front = routeFinder.findParetoRoutes(graph, startCity, endCity, startTime);
+            System.out.println("\n" + front.size() + " Pareto-optimal routes from " + startCity + " to " + endCity + ".");
+            printTopRoutes("shortest time", front, RouteFinder.Criterion.TIME);
+            printTopRoutes("lowest cost", front, RouteFinder.Criterion.COST);
+            printTopRoutes("fewest transfers", front, RouteFinder.Criterion.TRANSFERS);
+            return;
+        }
 
-        // Fewest transfers
-        System.out.println("\nTop 5 routes with fewest transfers from " + startCity + " to " + endCity + ":");
-        List<RouteFinder.Route> transfersRoutes = findAllRoutes(graph, routeFinder, sourceStations, destStations, RouteFinder.Criterion.TRANSFERS, startTime, 5);
-        printRoutes(transfersRoutes);
-    }
+        // The same queries run one after another, or with --parallel all at once on the frozen graph;
+        // either way the results print in this order
+        List<RouteFinder.Query> queries = new ArrayList<>();
+        List<String> titles = new ArrayList<>();
+        queries.add(new RouteFinder.Query(startCity, endCity, RouteFinder.Criterion.TIME, startTime, 5));
+        titles.add("Top 5 shortest time routes from " + startCity + " to " + endCity);
+        if (graph.getContractionHierarchy() != null) {
+            queries.add(new RouteFinder.Query(startCity, endCity, RouteFinder.Criterion.COST, startTime, 1));
+            titles.add("Cheapest route from " + startCity + " to " + endCity + " (contraction hierarchy)");
+        }
+        queries.add(new RouteFinder.Query(startCity, endCity, RouteFinder.Criterion.COST, startTime, 5));
+        titles.add("Top 5 lowest cost routes from " + startCity + " to " + endCity);
+        queries.add(new RouteFinder.Query(startCity, endCity, RouteFinder.Criterion.TRANSFERS, startTime, 5));
+        titles.add("Top 5 routes with fewest transfers from " + startCity + " to " + endCity);
 
-    private static List<RouteFinder.Route> findAllRoutes(Graph graph, RouteFinder routeFinder, Station[] sourceStations,
-                                                         Station[] destStations, RouteFinder.Criterion criterion,
-                                                         LocalTime startTime, int maxRoutes) {
-        List<RouteFinder.Route> allRoutes = new ArrayList<>();
-        for (Station source : sourceStations) {
-            for (Station dest : destStations) {
-                List<RouteFinder.Route> routes = routeFinder.findTopRoutes(graph, source, dest, criterion, startTime, maxRoutes);
-                allRoutes.addAll(routes);
+        long start = System.nanoTime();
+        List<List<RouteFinder.Route>> results;
+        if (Arrays.asList(args).contains("--parallel")) {
+            results = routeFinder.findAll(graph.freeze(), queries);
+        } else {
+            results = new ArrayList<>();
+            for (RouteFinder.Query query : queries) {
+                results.add(routeFinder.findTopRoutes(graph, query.getSourceCity(), query.getDestinationCity(),
+                        query.getCriterion(), query.getStartTime(), query.getMaxRoutes()));
             }
         }
-        // Sort and take top 5 based on criterion
-        Comparator<RouteFinder.Route> comparator = switch (criterion) {
-            case TIME -> Comparator.comparingLong(RouteFinder.Route::getTotalTime);
-            case COST -> Comparator.comparingDouble(RouteFinder.Route::getTotalCost);
-            case TRANSFERS -> Comparator.comparingInt(RouteFinder.Route::getTransfers);
-        };
-        return allRoutes.stream()
-                .sorted(comparator)
-                .limit(maxRoutes)
-                .collect(Collectors.toList());
+        long elapsed = System.nanoTime() - start;
+
+        for (int i = 0; i < queries.size(); i++) {
+            System.out.println("\n" + titles.get(i) + ":");
+            printRoutes(results.get(i));
+        }
+        System.out.printf("%n%d searches in %d ms.%n", queries.size(), elapsed / 1_000_000);
+    }
+
+    private static void printTopRoutes(String title, List<RouteFinder.Route> front, RouteFinder.Criterion criterion) {
+        System.out.println("\nTop 5 Pareto-optimal routes by " + title + ":");
+        List<RouteFinder.Route> routes = new ArrayList<>(front);
+        routes.sort(RouteFinder.comparator(criterion));
+        printRoutes(routes.subList(0, Math.min(5, routes.size())));
     }
 
     private static void printRoutes(List<RouteFinder.Route> routes) {
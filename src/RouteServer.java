@@ -0,0 +1,196 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import graf.Graph;
+import graf.GraphBuilder;
+import graf.RouteCache;
+import graf.RouteFinder;
+import stanice.Station;
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves route queries over HTTP without the JavaFX UI. The graph is loaded and frozen once, so
+ * every request only reads it.
+ * GET /route?from=G_0_0&to=G_5_5&criterion=TIME&k=5[&time=08:00] returns the routes as JSON;
+ * GET /cities returns the city ids.
+ * Usage: RouteServer [--port N] [--threads N] [--no-cache]
+ */
+public class RouteServer {
+    private static final int MAX_ROUTES = 50;
+
+    private final Graph graph;
+    private final RouteFinder routeFinder = new RouteFinder();
+    private final RouteCache routeCache;
+
+    public RouteServer(Graph graph, boolean cache) {
+        this.graph = graph;
+        this.routeCache = cache ? new RouteCache(routeFinder, 100_000, 1) : null;
+    }
+
+    public static void main(String[] args) {
+        List<String> options = Arrays.asList(args);
+        int port = intOption(options, "--port", 8080);
+        int threads = intOption(options, "--threads", 0);
+
+        String jsonFile = "transport_data.json";
+        Graph graph;
+        try {
+            graph = new GraphBuilder().buildFromJson(jsonFile).freeze();
+        } catch (IOException e) {
+            System.err.println("Error building graph: " + e.getMessage());
+            return;
+        }
+
+        RouteServer routeServer = new RouteServer(graph, !options.contains("--no-cache"));
+        // Headers and body go out as separate writes; without this, Nagle's algorithm holds the body
+        // back until the client's delayed ACK on a kept-alive connection (about 40 ms per request)
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        try {
+            HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+            server.createContext("/route", routeServer::handleRoute);
+            server.createContext("/cities", routeServer::handleCities);
+            server.setExecutor(newExecutor(threads));
+            server.start();
+            System.out.println("Serving " + graph.getStations().size() + " stations on http://localhost:" + port + "/route");
+        } catch (IOException e) {
+            System.err.println("Error starting server: " + e.getMessage());
+        }
+    }
+
+    /**
+     * One virtual thread per request by default; --threads N uses a fixed pool of N threads instead.
+     */
+    private static ExecutorService newExecutor(int threads) {
+        if (threads <= 0) {
+            return Executors.newVirtualThreadPerTaskExecutor();
+        }
+        return Executors.newFixedThreadPool(threads);
+    }
+
+    private void handleRoute(HttpExchange exchange) throws IOException {
+        Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+        String from = query.get("from");
+        String to = query.get("to");
+        if (from == null || to == null) {
+            sendError(exchange, 400, "Parameters from and to are required");
+            return;
+        }
+        if (graph.getCityStations(from).isEmpty() || graph.getCityStations(to).isEmpty()) {
+            sendError(exchange, 404, "Unknown city: " + (graph.getCityStations(from).isEmpty() ? from : to));
+            return;
+        }
+
+        RouteFinder.Criterion criterion;
+        int k;
+        LocalTime startTime;
+        try {
+            criterion = RouteFinder.Criterion.valueOf(query.getOrDefault("criterion", "TIME").toUpperCase(Locale.ROOT));
+            k = Integer.parseInt(query.getOrDefault("k", "5"));
+            startTime = LocalTime.parse(query.getOrDefault("time", "08:00"));
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            sendError(exchange, 400, "Invalid parameter: " + e.getMessage());
+            return;
+        }
+        if (k < 1 || k > MAX_ROUTES) {
+            sendError(exchange, 400, "k must be between 1 and " + MAX_ROUTES);
+            return;
+        }
+
+        List<RouteFinder.Route> routes = routeCache != null
+                ? routeCache.findTopRoutes(graph, from, to, criterion, startTime, k)
+                : routeFinder.findTopRoutes(graph, from, to, criterion, startTime, k);
+        JsonArrayBuilder routesJson = Json.createArrayBuilder();
+        for (RouteFinder.Route route : routes) {
+            routesJson.add(toJson(route));
+        }
+        send(exchange, 200, Json.createObjectBuilder()
+                .add("from", from)
+                .add("to", to)
+                .add("criterion", criterion.name())
+                .add("routes", routesJson)
+                .build());
+    }
+
+    private void handleCities(HttpExchange exchange) throws IOException {
+        Set<String> cities = new TreeSet<>();
+        for (Station station : graph.getStations()) {
+            cities.add(station.getCityId());
+        }
+        JsonArrayBuilder citiesJson = Json.createArrayBuilder();
+        cities.forEach(citiesJson::add);
+        send(exchange, 200, Json.createObjectBuilder().add("cities", citiesJson).build());
+    }
+
+    private static JsonObjectBuilder toJson(RouteFinder.Route route) {
+        JsonArrayBuilder legs = Json.createArrayBuilder();
+        for (Graph.Connection conn : route.getConnections()) {
+            JsonObjectBuilder leg = Json.createObjectBuilder()
+                    .add("from", conn.getSource().getId())
+                    .add("to", conn.getDestination().getId())
+                    .add("cost", conn.getCost())
+                    .add("travelTime", conn.getTravelTime());
+            if (conn.isTransfer()) {
+                leg.add("type", "transfer");
+            } else {
+                leg.add("type", conn.getSource().getType())
+                        .add("departureTime", conn.getDeparture().getDepartureTime().toString())
+                        .add("arrivalTime", conn.getDeparture().getArrivalTime().toString());
+            }
+            legs.add(leg);
+        }
+        return Json.createObjectBuilder()
+                .add("path", route.getPath())
+                .add("totalTime", route.getTotalTime())
+                .add("totalCost", route.getTotalCost())
+                .add("transfers", route.getTransfers())
+                .add("legs", legs);
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null) {
+            return query;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                query.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return query;
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        send(exchange, status, Json.createObjectBuilder().add("error", message).build());
+    }
+
+    private static void send(HttpExchange exchange, int status, JsonObject body) throws IOException {
+        byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static int intOption(List<String> options, String name, int defaultValue) {
+        int index = options.indexOf(name);
+        if (index < 0 || index + 1 >= options.size()) {
+            return defaultValue;
+        }
+        return Integer.parseInt(options.get(index + 1));
+    }
+}
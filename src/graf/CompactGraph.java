@@ -0,0 +1,434 @@
+package graf;
+
+import odlasci.Departures;
+import stanice.Station;
+import java.time.LocalTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Immutable compressed-sparse-row view of a {@link Graph} for the routing engines.
+ * Stations get dense int ids and the edges of station s are firstEdge[s] .. firstEdge[s + 1] - 1
+ * in parallel primitive arrays, so searches scan plain arrays instead of following
+ * map lookups and connection objects. A frozen {@link Graph} keeps its edges only here;
+ * connection objects are built from the arrays when a route or a caller needs them.
+ * Each station also has a timetable: its departures grouped by target station and sorted
+ * by minute of day, so time-dependent searches can jump to the next useful departure
+ * with a binary search instead of trying every departure of the station.
+ */
+public final class CompactGraph {
+    static final int MINUTES_PER_DAY = 24 * 60;
+    static final int TRANSFER = -1; // departure minute of a bus/train transfer inside a city
+    private static final LocalTime[] TIMES_OF_DAY = new LocalTime[MINUTES_PER_DAY];
+    // Enough for every core to run a search, with some room for threads that were preempted
+    static final int MAX_POOLED_SCRATCHES = 2 * Runtime.getRuntime().availableProcessors();
+
+    static {
+        for (int minute = 0; minute < MINUTES_PER_DAY; minute++) {
+            TIMES_OF_DAY[minute] = LocalTime.of(minute / 60, minute % 60);
+        }
+    }
+
+    private final Station[] stations;
+    private final Map<Station, Integer> stationIndex;
+    private final Set<Station> stationSet; // the stations in id order
+    private final String[] cityIds; // sorted
+    private final int[] stationCity; // index into cityIds for every station
+    final int[] firstEdge;
+    final int[] edgeSource;
+    final int[] edgeTarget;
+    final int[] edgeDeparture; // minute of day, or TRANSFER
+    final int[] edgeDuration;
+    final double[] edgePrice;
+    final int[] edgeMinTransfer; // as given, readers treat negative values as 0
+
+    // Transfer edges of station s: transferEdge[firstTransfer[s]] .. transferEdge[firstTransfer[s + 1] - 1]
+    final int[] firstTransfer;
+    final int[] transferEdge;
+    // Timetable groups of station s are firstGroup[s] .. firstGroup[s + 1] - 1; the departures of group g
+    // are timetableEdge[firstDeparture[g]] .. timetableEdge[firstDeparture[g + 1] - 1], sorted by minute
+    final int[] firstGroup;
+    final int[] groupTarget;
+    final int[] groupMinDuration;
+    final int[] firstDeparture;
+    final int[] timetableMinute;
+    final int[] timetableEdge;
+
+    // Dijkstra arrays of searches that have finished, see borrowScratch()
+    private final Queue<ShortestPathSearch.Scratch> scratches = new ConcurrentLinkedQueue<>();
+
+    CompactGraph(Map<Station, List<Graph.Connection>> connections) {
+        this(connections, null, null);
+    }
+
+    /**
+     * Builds the compact form of a graph with the same stations as base. Stations that are not
+     * changed keep their edges and timetables from base; only the changed ones are read from
+     * connections and sorted again. A null base builds everything from connections, which then
+     * has an entry for every station.
+     */
+    CompactGraph(Map<Station, List<Graph.Connection>> connections, CompactGraph base, boolean[] changed) {
+        if (base != null) {
+            stations = base.stations;
+            stationIndex = base.stationIndex;
+            stationSet = base.stationSet;
+            cityIds = base.cityIds;
+            stationCity = base.stationCity;
+        } else {
+            stations = connections.keySet().toArray(new Station[0]);
+            stationIndex = new HashMap<>(stations.length * 2);
+            for (int i = 0; i < stations.length; i++) {
+                stationIndex.put(stations[i], i);
+            }
+            stationSet = Collections.unmodifiableSet(new LinkedHashSet<>(Arrays.asList(stations)));
+            cityIds = Arrays.stream(stations).map(Station::getCityId).distinct().sorted().toArray(String[]::new);
+            stationCity = new int[stations.length];
+            for (int i = 0; i < stations.length; i++) {
+                stationCity[i] = Arrays.binarySearch(cityIds, stations[i].getCityId());
+            }
+        }
+
+        int edgeCount = 0;
+        int transferCount = 0;
+        for (int s = 0; s < stations.length; s++) {
+            if (base != null && !changed[s]) {
+                edgeCount += base.firstEdge[s + 1] - base.firstEdge[s];
+                transferCount += base.firstTransfer[s + 1] - base.firstTransfer[s];
+                continue;
+            }
+            for (Graph.Connection conn : connections.getOrDefault(stations[s], Collections.emptyList())) {
+                if (usable(conn)) {
+                    edgeCount++;
+                    transferCount += conn.isTransfer() ? 1 : 0;
+                }
+            }
+        }
+
+        firstEdge = new int[stations.length + 1];
+        edgeSource = new int[edgeCount];
+        edgeTarget = new int[edgeCount];
+        edgeDeparture = new int[edgeCount];
+        edgeDuration = new int[edgeCount];
+        edgePrice = new double[edgeCount];
+        edgeMinTransfer = new int[edgeCount];
+        firstTransfer = new int[stations.length + 1];
+        transferEdge = new int[transferCount];
+        timetableMinute = new int[edgeCount - transferCount];
+        timetableEdge = new int[edgeCount - transferCount];
+        firstGroup = new int[stations.length + 1];
+        List<Integer> targets = new ArrayList<>();
+        List<Integer> minDurations = new ArrayList<>();
+        List<Integer> offsets = new ArrayList<>();
+        int edge = 0;
+        int transfer = 0;
+        int departure = 0;
+        for (int s = 0; s < stations.length; s++) {
+            firstEdge[s] = edge;
+            firstTransfer[s] = transfer;
+            firstGroup[s] = targets.size();
+            if (base != null && !changed[s]) {
+                edge = copyStation(base, s, edge, transfer, departure, targets, minDurations, offsets);
+                transfer = firstTransfer[s] + base.firstTransfer[s + 1] - base.firstTransfer[s];
+                departure += base.firstDeparture[base.firstGroup[s + 1]] - base.firstDeparture[base.firstGroup[s]];
+                continue;
+            }
+            for (Graph.Connection conn : connections.getOrDefault(stations[s], Collections.emptyList())) {
+                if (!usable(conn)) {
+                    continue;
+                }
+                edgeSource[edge] = s;
+                edgeTarget[edge] = stationIndex.get(conn.getDestination());
+                edgeDuration[edge] = (int) conn.getTravelTime();
+                edgePrice[edge] = conn.getCost();
+                if (conn.isTransfer()) {
+                    edgeDeparture[edge] = TRANSFER;
+                } else {
+                    edgeDeparture[edge] = minuteOfDay(conn.getDeparture().getDepartureTime());
+                    edgeMinTransfer[edge] = conn.getDeparture().getMinWaitingTime();
+                }
+                edge++;
+            }
+
+            List<Integer> timed = new ArrayList<>();
+            for (int e = firstEdge[s]; e < edge; e++) {
+                if (isTransfer(e)) {
+                    transferEdge[transfer++] = e;
+                } else {
+                    timed.add(e);
+                }
+            }
+            timed.sort(Comparator.comparingInt((Integer e) -> edgeTarget[e])
+                    .thenComparingInt(e -> edgeDeparture[e])
+                    .thenComparingInt(e -> e));
+            for (int e : timed) {
+                int last = targets.size() - 1;
+                if (last < firstGroup[s] || targets.get(last) != edgeTarget[e]) {
+                    targets.add(edgeTarget[e]);
+                    minDurations.add(edgeDuration[e]);
+                    offsets.add(departure);
+                } else if (edgeDuration[e] < minDurations.get(last)) {
+                    minDurations.set(last, edgeDuration[e]);
+                }
+                timetableMinute[departure] = edgeDeparture[e];
+                timetableEdge[departure++] = e;
+            }
+        }
+        firstEdge[stations.length] = edge;
+        firstTransfer[stations.length] = transfer;
+        firstGroup[stations.length] = targets.size();
+        groupTarget = targets.stream().mapToInt(Integer::intValue).toArray();
+        groupMinDuration = minDurations.stream().mapToInt(Integer::intValue).toArray();
+        firstDeparture = new int[targets.size() + 1];
+        for (int g = 0; g < targets.size(); g++) {
+            firstDeparture[g] = offsets.get(g);
+        }
+        firstDeparture[targets.size()] = departure;
+    }
+
+    /**
+     * Copies the edges, transfers and timetable of station s from base to the given positions,
+     * shifting edge ids to the new numbering. Returns the next free edge id.
+     */
+    private int copyStation(CompactGraph base, int s, int edge, int transfer, int departure,
+                            List<Integer> targets, List<Integer> minDurations, List<Integer> offsets) {
+        int from = base.firstEdge[s];
+        int count = base.firstEdge[s + 1] - from;
+        int shift = edge - from;
+        System.arraycopy(base.edgeSource, from, edgeSource, edge, count);
+        System.arraycopy(base.edgeTarget, from, edgeTarget, edge, count);
+        System.arraycopy(base.edgeDeparture, from, edgeDeparture, edge, count);
+        System.arraycopy(base.edgeDuration, from, edgeDuration, edge, count);
+        System.arraycopy(base.edgePrice, from, edgePrice, edge, count);
+        System.arraycopy(base.edgeMinTransfer, from, edgeMinTransfer, edge, count);
+        for (int t = base.firstTransfer[s]; t < base.firstTransfer[s + 1]; t++) {
+            transferEdge[transfer++] = base.transferEdge[t] + shift;
+        }
+        int firstBaseDeparture = base.firstDeparture[base.firstGroup[s]];
+        for (int g = base.firstGroup[s]; g < base.firstGroup[s + 1]; g++) {
+            targets.add(base.groupTarget[g]);
+            minDurations.add(base.groupMinDuration[g]);
+            offsets.add(base.firstDeparture[g] - firstBaseDeparture + departure);
+        }
+        int departures = base.firstDeparture[base.firstGroup[s + 1]] - firstBaseDeparture;
+        System.arraycopy(base.timetableMinute, firstBaseDeparture, timetableMinute, departure, departures);
+        for (int i = 0; i < departures; i++) {
+            timetableEdge[departure + i] = base.timetableEdge[firstBaseDeparture + i] + shift;
+        }
+        return edge + count;
+    }
+
+    /**
+     * Timed departures must take time; transfers are always usable.
+     */
+    private static boolean usable(Graph.Connection conn) {
+        return conn.isTransfer() || conn.getTravelTime() > 0;
+    }
+
+    static int minuteOfDay(LocalTime time) {
+        return time.getHour() * 60 + time.getMinute();
+    }
+
+    /**
+     * Returns the time of day at minute (0 .. MINUTES_PER_DAY - 1), from a shared table.
+     */
+    static LocalTime timeOfDay(int minute) {
+        return TIMES_OF_DAY[minute];
+    }
+
+    public int getStationCount() {
+        return stations.length;
+    }
+
+    public int getEdgeCount() {
+        return edgeTarget.length;
+    }
+
+    public Station getStation(int id) {
+        return stations[id];
+    }
+
+    /**
+     * Returns the id of the station the edge leaves from. Together with {@link #getEdgeTarget(int)}
+     * this walks the edges without building a Connection for each one.
+     */
+    public int getEdgeSource(int edge) {
+        return edgeSource[edge];
+    }
+
+    public int getEdgeTarget(int edge) {
+        return edgeTarget[edge];
+    }
+
+    public int getCityCount() {
+        return cityIds.length;
+    }
+
+    /**
+     * Returns the city with the given dense id; city ids follow the sorted order of the city names.
+     */
+    public String getCityId(int city) {
+        return cityIds[city];
+    }
+
+    /**
+     * Returns the dense id of a city, or -1 if no station of the graph is in it.
+     */
+    public int cityIndexOf(String cityId) {
+        int city = Arrays.binarySearch(cityIds, cityId);
+        return city < 0 ? -1 : city;
+    }
+
+    int cityOf(int station) {
+        return stationCity[station];
+    }
+
+    /**
+     * Returns the dense id of a station, or -1 if it is not part of the graph.
+     */
+    public int indexOf(Station station) {
+        Integer id = stationIndex.get(station);
+        return id == null ? -1 : id;
+    }
+
+    int[] indexesOf(Collection<Station> stations) {
+        return stations.stream().mapToInt(this::indexOf).filter(id -> id >= 0).toArray();
+    }
+
+    boolean[] mask(Collection<Station> stations) {
+        boolean[] mask = new boolean[this.stations.length];
+        for (int id : indexesOf(stations)) {
+            mask[id] = true;
+        }
+        return mask;
+    }
+
+    /**
+     * Returns the stations in id order.
+     */
+    Set<Station> getStations() {
+        return stationSet;
+    }
+
+    /**
+     * Builds the connection of an edge, with a departure for timed edges.
+     */
+    Graph.Connection getConnection(int edge) {
+        Station source = stations[edgeSource[edge]];
+        Station destination = stations[edgeTarget[edge]];
+        if (isTransfer(edge)) {
+            return new Graph.Connection(source, destination, edgePrice[edge], edgeDuration[edge], true, null);
+        }
+        int minute = edgeDeparture[edge];
+        Departures departure = new Departures(source, destination, timeOfDay(minute),
+                timeOfDay((minute + edgeDuration[edge]) % MINUTES_PER_DAY), edgePrice[edge], edgeMinTransfer[edge]);
+        return new Graph.Connection(source, destination, edgePrice[edge], edgeDuration[edge], false, departure);
+    }
+
+    /**
+     * Builds the connections leaving station, in the order they were added.
+     */
+    List<Graph.Connection> getConnections(Station station) {
+        int s = indexOf(station);
+        if (s < 0) {
+            return Collections.emptyList();
+        }
+        List<Graph.Connection> connections = new ArrayList<>(firstEdge[s + 1] - firstEdge[s]);
+        for (int e = firstEdge[s]; e < firstEdge[s + 1]; e++) {
+            connections.add(getConnection(e));
+        }
+        return Collections.unmodifiableList(connections);
+    }
+
+    /**
+     * Returns per-station search arrays that no running search uses, reusing those of a
+     * finished search when there are any. They go away with this graph, so a replaced graph
+     * does not stay reachable through them.
+     */
+    ShortestPathSearch.Scratch borrowScratch() {
+        ShortestPathSearch.Scratch scratch = scratches.poll();
+        return scratch != null ? scratch : new ShortestPathSearch.Scratch(stations.length);
+    }
+
+    void returnScratch(ShortestPathSearch.Scratch scratch) {
+        if (scratches.size() < MAX_POOLED_SCRATCHES) {
+            scratches.offer(scratch);
+        }
+    }
+
+    boolean isTransfer(int edge) {
+        return edgeDeparture[edge] == TRANSFER;
+    }
+
+    /**
+     * Arrival at the edge target when leaving its source no earlier than time:
+     * transfers start right away, departures wait for their next daily occurrence.
+     */
+    int arrivalAfter(int edge, int time) {
+        int departure = edgeDeparture[edge];
+        if (departure == TRANSFER) {
+            return time + edgeDuration[edge];
+        }
+        return time + Math.floorMod(departure - time, MINUTES_PER_DAY) + edgeDuration[edge];
+    }
+
+    /**
+     * Returns the timetable index of the first departure of the group leaving at or after time,
+     * wrapping past midnight to the first departure of the next day. The group must not be empty.
+     */
+    int nextDeparture(int group, int time) {
+        int minute = Math.floorMod(time, MINUTES_PER_DAY);
+        int low = firstDeparture[group];
+        int high = firstDeparture[group + 1];
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timetableMinute[mid] < minute) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low == firstDeparture[group + 1] ? firstDeparture[group] : low;
+    }
+
+    /**
+     * Returns the timetable index that follows index within its group, wrapping past midnight.
+     */
+    int followingDeparture(int group, int index) {
+        return index + 1 == firstDeparture[group + 1] ? firstDeparture[group] : index + 1;
+    }
+
+    /**
+     * Returns the departure of the group that is best when boarding no earlier than time, or -1 if
+     * none is better than limit. Departures are compared by arrival when toTarget is set and by the
+     * time the next departure can be boarded otherwise; ties go to the lowest edge id. The scan stops
+     * as soon as a later departure cannot win, so usually only a few departures are looked at.
+     */
+    int bestDeparture(int group, int time, boolean toTarget, int limit) {
+        int best = -1;
+        int bestTime = limit;
+        int size = firstDeparture[group + 1] - firstDeparture[group];
+        int index = nextDeparture(group, time);
+        for (int i = 0; i < size; i++, index = followingDeparture(group, index)) {
+            int departure = time + Math.floorMod(timetableMinute[index] - time, MINUTES_PER_DAY);
+            int earliest = departure + groupMinDuration[group];
+            if (earliest >= limit || earliest > bestTime) {
+                break;
+            }
+            int e = timetableEdge[index];
+            int arrival = departure + edgeDuration[e];
+            int value = toTarget ? arrival : readyAfter(e, arrival);
+            if (value < bestTime || value == bestTime && best >= 0 && e < best) {
+                best = e;
+                bestTime = value;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Earliest time a new departure can be boarded after arriving over the edge.
+     */
+    int readyAfter(int edge, int arrival) {
+        return arrival + Math.max(0, edgeMinTransfer[edge]);
+    }
+}
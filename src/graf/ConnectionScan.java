@@ -0,0 +1,495 @@
+package graf;
+
+import stanice.Station;
+import java.time.LocalTime;
+import java.util.*;
+
+/**
+ * Connection Scan engine for earliest-arrival queries.
+ * All timed departures of a graph live in one array sorted by departure minute,
+ * so a query is a single forward scan instead of a priority-queue search.
+ * Departures repeat every day; the scan wraps past midnight until the result is settled.
+ */
+public class ConnectionScan {
+    private static final int UNREACHED = Integer.MAX_VALUE;
+
+    private final CompactGraph graph;
+
+    // Timed edges sorted by departure minute, one entry per array index
+    private final int[] departureMinute;
+    private final int[] duration;
+    private final int[] minTransferTime;
+    private final int[] fromStation;
+    private final int[] toStation;
+    private final int[] edge;
+
+    public ConnectionScan(CompactGraph graph) {
+        this(graph, sortedKeys(graph, null));
+    }
+
+    /**
+     * Builds the scan for a graph derived from base's graph in which only the changed stations have
+     * new edges. The departures of the other stations are already in order, so they are only
+     * renumbered and merged with the sorted departures of the changed stations.
+     */
+    ConnectionScan(ConnectionScan base, CompactGraph graph, boolean[] changed) {
+        this(graph, merge(base, graph, changed));
+    }
+
+    private ConnectionScan(CompactGraph graph, long[] keys) {
+        this.graph = graph;
+        int count = keys.length;
+        departureMinute = new int[count];
+        duration = new int[count];
+        minTransferTime = new int[count];
+        fromStation = new int[count];
+        toStation = new int[count];
+        edge = new int[count];
+        for (int i = 0; i < count; i++) {
+            int e = (int) keys[i];
+            departureMinute[i] = graph.edgeDeparture[e];
+            duration[i] = graph.edgeDuration[e];
+            minTransferTime[i] = Math.max(0, graph.edgeMinTransfer[e]);
+            fromStation[i] = graph.edgeSource[e];
+            toStation[i] = graph.edgeTarget[e];
+            edge[i] = e;
+        }
+    }
+
+    /**
+     * Sort keys of the timed edges of the stations selected by mask (all if null): departure minute
+     * in the high bits and edge id in the low bits, so they sort without boxing.
+     */
+    private static long[] sortedKeys(CompactGraph graph, boolean[] mask) {
+        int count = 0;
+        for (int e = 0; e < graph.getEdgeCount(); e++) {
+            if (!graph.isTransfer(e) && (mask == null || mask[graph.edgeSource[e]])) {
+                count++;
+            }
+        }
+        long[] keys = new long[count];
+        int k = 0;
+        for (int e = 0; e < graph.getEdgeCount(); e++) {
+            if (!graph.isTransfer(e) && (mask == null || mask[graph.edgeSource[e]])) {
+                keys[k++] = key(graph.edgeDeparture[e], e);
+            }
+        }
+        Arrays.sort(keys);
+        return keys;
+    }
+
+    private static long key(int minute, int edge) {
+        return ((long) minute << 32) | edge;
+    }
+
+    private static long[] merge(ConnectionScan base, CompactGraph graph, boolean[] changed) {
+        long[] added = sortedKeys(graph, changed);
+        // Edge ids of an unchanged station all move by the same amount, so kept departures stay sorted
+        int[] oldFirstEdge = base.graph.firstEdge;
+        long[] keys = new long[graph.getEdgeCount() - graph.transferEdge.length];
+        int k = 0;
+        int a = 0;
+        for (int i = 0; i < base.edge.length; i++) {
+            int from = base.fromStation[i];
+            if (changed[from]) {
+                continue;
+            }
+            long kept = key(base.departureMinute[i], base.edge[i] - oldFirstEdge[from] + graph.firstEdge[from]);
+            while (a < added.length && added[a] < kept) {
+                keys[k++] = added[a++];
+            }
+            keys[k++] = kept;
+        }
+        while (a < added.length) {
+            keys[k++] = added[a++];
+        }
+        return keys;
+    }
+
+    public int getConnectionCount() {
+        return edge.length;
+    }
+
+    /**
+     * Returns up to maxJourneys journeys from any source station to any target station,
+     * ordered by arrival time. Journeys differ in their final leg, so the first one is
+     * the earliest arrival and the rest are the best alternatives ending differently.
+     */
+    public List<List<Graph.Connection>> earliestArrivals(Collection<Station> sources, Collection<Station> targets,
+                                                         LocalTime startTime, int maxJourneys) {
+        if (maxJourneys <= 0) {
+            return Collections.emptyList();
+        }
+        for (Station source : sources) {
+            if (targets.contains(source)) {
+                return Collections.singletonList(Collections.emptyList());
+            }
+        }
+        Search search = new Search(graph.mask(targets), maxJourneys);
+        search.run(graph.indexesOf(sources), CompactGraph.minuteOfDay(startTime));
+        return search.journeys();
+    }
+
+    /**
+     * Runs one scan from the sources to every station and returns the earliest arrival at each.
+     */
+    StationTree earliestArrivalsToAll(int[] sources, int startMinute) {
+        Search search = new Search(new boolean[graph.getStationCount()], 1);
+        search.trackArrivals();
+        search.run(sources, startMinute);
+        return search;
+    }
+
+    /**
+     * A profile entry: leaving a station at departure (boarding a connection or starting a transfer)
+     * reaches a target at arrival. The rest of the journey continues with next.
+     */
+    static final class Journey {
+        final int departure;
+        final int arrival;
+        final int edge;
+        final Journey next; // null once the edge reaches a target
+
+        Journey(int departure, int arrival, int edge, Journey next) {
+            this.departure = departure;
+            this.arrival = arrival;
+            this.edge = edge;
+            this.next = next;
+        }
+    }
+
+    /**
+     * Profile scan: one backward pass over the departures of the first days, from the horizon
+     * down to midnight, builds for every station the Pareto set of (departure, arrival) journeys
+     * to the targets. Returns the merged set of the sources, sorted by departure, for departures
+     * from midnight of day 0 on. The horizon must be at least the latest arrival any start time
+     * of day 0 needs, i.e. the earliest arrival when starting at midnight plus one day.
+     */
+    List<Journey> profile(int[] sources, boolean[] isTarget, int horizon) {
+        int n = graph.getStationCount();
+        // Transfers that end at each station, to extend a new journey back to the other station of the city
+        List<List<Integer>> incomingTransfers = new ArrayList<>(Collections.nCopies(n, null));
+        // Transfer straight into a target, which any ready time can take
+        int[] directTransfer = new int[n];
+        Arrays.fill(directTransfer, -1);
+        for (int station = 0; station < n; station++) {
+            for (int t = graph.firstTransfer[station]; t < graph.firstTransfer[station + 1]; t++) {
+                int e = graph.transferEdge[t];
+                int to = graph.edgeTarget[e];
+                if (isTarget[to]) {
+                    if (directTransfer[station] < 0 || graph.edgeDuration[e] < graph.edgeDuration[directTransfer[station]]) {
+                        directTransfer[station] = e;
+                    }
+                } else {
+                    if (incomingTransfers.get(to) == null) {
+                        incomingTransfers.set(to, new ArrayList<>());
+                    }
+                    incomingTransfers.get(to).add(e);
+                }
+            }
+        }
+
+        List<List<Journey>> profiles = new ArrayList<>(Collections.nCopies(n, null)); // sorted by departure, latest first
+        SearchBudget budget = SearchBudget.current();
+        for (int day = (horizon - 1) / CompactGraph.MINUTES_PER_DAY; day >= 0 && budget.check(); day--) {
+            int base = day * CompactGraph.MINUTES_PER_DAY;
+            for (int i = departureMinute.length - 1; i >= 0; i--) {
+                int departure = base + departureMinute[i];
+                int arrival = departure + duration[i];
+                int from = fromStation[i];
+                int to = toStation[i];
+                if (arrival > horizon || isTarget[from]) {
+                    continue;
+                }
+                Journey journey;
+                if (isTarget[to]) {
+                    journey = new Journey(departure, arrival, edge[i], null);
+                } else {
+                    Journey next = bestFrom(profiles.get(to), directTransfer[to], arrival + minTransferTime[i]);
+                    if (next == null) {
+                        continue;
+                    }
+                    journey = new Journey(departure, next.arrival, edge[i], next);
+                }
+                if (insert(profiles, from, journey) && incomingTransfers.get(from) != null) {
+                    for (int e : incomingTransfers.get(from)) {
+                        int start = departure - graph.edgeDuration[e];
+                        if (start >= 0) {
+                            insert(profiles, graph.edgeSource[e], new Journey(start, journey.arrival, e, journey));
+                        }
+                    }
+                }
+            }
+        }
+
+        List<List<Journey>> merged = new ArrayList<>(Collections.nCopies(1, null));
+        for (int source : sources) {
+            if (profiles.get(source) != null) {
+                for (Journey journey : profiles.get(source)) {
+                    insert(merged, 0, journey);
+                }
+            }
+        }
+        List<Journey> result = merged.get(0) == null ? new ArrayList<>() : new ArrayList<>(merged.get(0));
+        Collections.reverse(result);
+        return result;
+    }
+
+    /**
+     * Returns the journey that reaches a target first when ready at the station at time,
+     * from the station's profile or a transfer straight into a target; null if there is none.
+     */
+    private Journey bestFrom(List<Journey> profile, int directTransfer, int time) {
+        Journey best = null;
+        if (profile != null && !profile.isEmpty()) {
+            // Latest-first order: the last journey leaving at or after time arrives earliest
+            int low = 0;
+            int high = profile.size();
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (profile.get(mid).departure >= time) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            best = low > 0 ? profile.get(low - 1) : null;
+        }
+        if (directTransfer >= 0) {
+            int arrival = time + graph.edgeDuration[directTransfer];
+            if (best == null || arrival < best.arrival) {
+                best = new Journey(time, arrival, directTransfer, null);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Adds a journey to a station profile unless one leaving no earlier arrives no later.
+     * Journeys the new one makes useless are dropped. Returns whether it was added.
+     */
+    private static boolean insert(List<List<Journey>> profiles, int station, Journey journey) {
+        List<Journey> profile = profiles.get(station);
+        if (profile == null) {
+            profile = new ArrayList<>();
+            profiles.set(station, profile);
+        }
+        // Profiles are filled latest departure first, so the new journey almost always goes at the end
+        int position = profile.size();
+        while (position > 0 && profile.get(position - 1).departure <= journey.departure) {
+            position--;
+        }
+        if (position > 0 && profile.get(position - 1).arrival <= journey.arrival
+                || position < profile.size() && profile.get(position).departure == journey.departure
+                && profile.get(position).arrival <= journey.arrival) {
+            return false;
+        }
+        while (position < profile.size() && profile.get(position).arrival >= journey.arrival) {
+            profile.remove(position);
+        }
+        profile.add(position, journey);
+        return true;
+    }
+
+    private int firstDepartureAtOrAfter(int minute) {
+        int low = 0;
+        int high = departureMinute.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (departureMinute[mid] < minute) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Candidate journey at a target station, identified by its final edge.
+     */
+    private static class Candidate {
+        final int arrival;
+        final int edge;
+        final int lastStation; // station the final edge starts from
+
+        Candidate(int arrival, int edge, int lastStation) {
+            this.arrival = arrival;
+            this.edge = edge;
+            this.lastStation = lastStation;
+        }
+    }
+
+    /**
+     * Per-query state. Times are minutes since midnight of the query day and may run past 24h.
+     */
+    private class Search implements StationTree {
+        private final int[] ready = new int[graph.getStationCount()]; // earliest time a new departure can be boarded
+        private final int[] enterEdge = new int[graph.getStationCount()];
+        // Earliest arrival and its edge per station, only kept for one-to-all scans
+        private int[] arrival;
+        private int[] arrivalEdge;
+        private final boolean[] isTarget;
+        private final int maxJourneys;
+        private final List<Candidate> candidates = new ArrayList<>();
+        private boolean improved;
+        private int latestReady;
+
+        Search(boolean[] isTarget, int maxJourneys) {
+            this.isTarget = isTarget;
+            this.maxJourneys = maxJourneys;
+            Arrays.fill(ready, UNREACHED);
+            Arrays.fill(enterEdge, -1);
+        }
+
+        void trackArrivals() {
+            arrival = new int[ready.length];
+            arrivalEdge = new int[ready.length];
+            Arrays.fill(arrival, UNREACHED);
+            Arrays.fill(arrivalEdge, -1);
+        }
+
+        void run(int[] sources, int startMinute) {
+            latestReady = startMinute;
+            for (int source : sources) {
+                ready[source] = startMinute;
+                if (arrival != null) {
+                    arrival[source] = startMinute;
+                }
+            }
+            for (int source : sources) {
+                relaxFootpaths(source);
+            }
+
+            int first = firstDepartureAtOrAfter(startMinute);
+            SearchBudget budget = SearchBudget.current();
+            for (int day = 0; budget.check(); day++) {
+                int base = day * CompactGraph.MINUTES_PER_DAY;
+                improved = false;
+                for (int i = day == 0 ? first : 0; i < departureMinute.length; i++) {
+                    int departure = base + departureMinute[i];
+                    if (departure >= bound()) {
+                        return;
+                    }
+                    int from = fromStation[i];
+                    if (ready[from] > departure) {
+                        continue;
+                    }
+                    int arrives = departure + duration[i];
+                    int to = toStation[i];
+                    if (isTarget[to]) {
+                        offer(arrives, edge[i], from);
+                    } else if (arrives < bound()) {
+                        arrive(to, arrives, edge[i]);
+                        reach(to, arrives + minTransferTime[i], edge[i]);
+                    }
+                }
+                // A quiet day that every station was already ready for repeats itself on later days.
+                // A station that became ready during the day has not seen that day's earlier departures yet.
+                if (day > 0 && !improved && latestReady <= base) {
+                    return;
+                }
+            }
+        }
+
+        private int bound() {
+            return candidates.size() < maxJourneys ? UNREACHED : candidates.get(candidates.size() - 1).arrival;
+        }
+
+        private void reach(int station, int time, int viaEdge) {
+            if (time >= ready[station]) {
+                return;
+            }
+            ready[station] = time;
+            enterEdge[station] = viaEdge;
+            improved = true;
+            latestReady = Math.max(latestReady, time);
+            relaxFootpaths(station);
+        }
+
+        private void relaxFootpaths(int station) {
+            for (int t = graph.firstTransfer[station]; t < graph.firstTransfer[station + 1]; t++) {
+                int e = graph.transferEdge[t];
+                int other = graph.edgeTarget[e];
+                int time = ready[station] + graph.edgeDuration[e];
+                if (isTarget[other]) {
+                    offer(time, e, station);
+                } else {
+                    arrive(other, time, e);
+                    reach(other, time, e);
+                }
+            }
+        }
+
+        private void arrive(int station, int time, int viaEdge) {
+            if (arrival != null && time < arrival[station]) {
+                arrival[station] = time;
+                arrivalEdge[station] = viaEdge;
+            }
+        }
+
+        @Override
+        public int arrival(int station) {
+            return arrival[station];
+        }
+
+        @Override
+        public double value(int station) {
+            return arrival[station];
+        }
+
+        @Override
+        public List<Graph.Connection> path(int station) {
+            if (arrivalEdge[station] < 0) {
+                return new ArrayList<>();
+            }
+            List<Graph.Connection> path = pathTo(graph.edgeSource[arrivalEdge[station]]);
+            path.add(graph.getConnection(arrivalEdge[station]));
+            return path;
+        }
+
+        private void offer(int arrival, int finalEdge, int lastStation) {
+            for (int i = 0; i < candidates.size(); i++) {
+                if (candidates.get(i).edge == finalEdge) {
+                    if (candidates.get(i).arrival <= arrival) {
+                        return;
+                    }
+                    candidates.remove(i);
+                    break;
+                }
+            }
+            if (arrival >= bound()) {
+                return;
+            }
+            int position = 0;
+            while (position < candidates.size() && candidates.get(position).arrival <= arrival) {
+                position++;
+            }
+            candidates.add(position, new Candidate(arrival, finalEdge, lastStation));
+            if (candidates.size() > maxJourneys) {
+                candidates.remove(candidates.size() - 1);
+            }
+        }
+
+        List<List<Graph.Connection>> journeys() {
+            List<List<Graph.Connection>> journeys = new ArrayList<>();
+            for (Candidate candidate : candidates) {
+                List<Graph.Connection> path = pathTo(candidate.lastStation);
+                path.add(graph.getConnection(candidate.edge));
+                journeys.add(path);
+            }
+            return journeys;
+        }
+
+        private List<Graph.Connection> pathTo(int station) {
+            List<Graph.Connection> path = new ArrayList<>();
+            int current = station;
+            while (enterEdge[current] >= 0) {
+                path.add(graph.getConnection(enterEdge[current]));
+                current = graph.edgeSource[enterEdge[current]];
+            }
+            Collections.reverse(path);
+            return path;
+        }
+    }
+}
@@ -0,0 +1,753 @@
+package graf;
+
+import stanice.Station;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Contraction hierarchy over the price graph for cheapest-route (COST) queries.
+ * Prices do not depend on the clock, so stations can be contracted once: a contracted station
+ * is replaced by shortcuts between its remaining neighbours wherever it lies on their cheapest
+ * path. A query then only searches upward from both ends and meets at the most important station
+ * of the route, which touches a few hundred stations even on very large grids.
+ * Contraction runs in rounds on the common ForkJoinPool: every round contracts a set of
+ * non-adjacent stations whose priority is lowest among their neighbours, all in parallel.
+ * The result does not depend on the number of threads.
+ */
+public class ContractionHierarchy {
+    private static final int MAGIC = 0x43484731; // "CHG1"
+    // Witness searches give up after this many stations; a missed witness only costs an extra shortcut
+    private static final int WITNESS_SETTLE_LIMIT = 500;
+    private static final int PRIORITY_SETTLE_LIMIT = 20; // priorities are estimates, so they search less
+    private static final int ORIGINAL = -1; // middle station of an arc that is not a shortcut
+
+    private final CompactGraph graph;
+    private final long fingerprint;
+    // Upward arcs of station s are up*[upFirst[s]] .. up*[upFirst[s + 1] - 1], to more important stations
+    private final int[] upFirst;
+    private final int[] upTarget;
+    private final double[] upWeight;
+    private final int[] upMiddle;
+    private final int[] upEdge; // cheapest compact edge of an original arc, -1 for a shortcut
+    // Downward arcs into station s, from more important stations, for the backward search
+    private final int[] downFirst;
+    private final int[] downSource;
+    private final double[] downWeight;
+    private final int[] downMiddle;
+    private final int[] downEdge;
+    // Query arrays of searches that have finished, reused by the next query on any thread
+    private final Queue<Scratch> scratches = new ConcurrentLinkedQueue<>();
+
+    private ContractionHierarchy(CompactGraph graph, long fingerprint, ArcList up, ArcList down) {
+        this.graph = graph;
+        this.fingerprint = fingerprint;
+        int n = graph.getStationCount();
+        int[][] upArcs = up.sortBy(n, true);
+        upFirst = upArcs[0];
+        upTarget = upArcs[1];
+        upMiddle = upArcs[2];
+        upWeight = up.weightsInOrder(upArcs[3]);
+        int[][] downArcs = down.sortBy(n, false);
+        downFirst = downArcs[0];
+        downSource = downArcs[1];
+        downMiddle = downArcs[2];
+        downWeight = down.weightsInOrder(downArcs[3]);
+        upEdge = new int[upTarget.length];
+        for (int s = 0; s < n; s++) {
+            for (int a = upFirst[s]; a < upFirst[s + 1]; a++) {
+                upEdge[a] = upMiddle[a] == ORIGINAL ? cheapestEdge(s, upTarget[a]) : -1;
+            }
+        }
+        downEdge = new int[downSource.length];
+        for (int s = 0; s < n; s++) {
+            for (int a = downFirst[s]; a < downFirst[s + 1]; a++) {
+                downEdge[a] = downMiddle[a] == ORIGINAL ? cheapestEdge(downSource[a], s) : -1;
+            }
+        }
+    }
+
+    /**
+     * Contracts the price graph of the compact graph. Expensive; meant to run once after loading.
+     */
+    public static ContractionHierarchy build(CompactGraph graph) {
+        return new Contraction(graph).run();
+    }
+
+    public CompactGraph getGraph() {
+        return graph;
+    }
+
+    public int getShortcutCount() {
+        int shortcuts = 0;
+        for (int middle : upMiddle) {
+            shortcuts += middle == ORIGINAL ? 0 : 1;
+        }
+        for (int middle : downMiddle) {
+            shortcuts += middle == ORIGINAL ? 0 : 1;
+        }
+        return shortcuts;
+    }
+
+    /**
+     * Returns the cheapest path from any source to any target, or null if there is none.
+     */
+    public List<Graph.Connection> cheapestPath(Collection<Station> sources, Collection<Station> targets) {
+        Scratch s = scratches.poll();
+        if (s == null) {
+            s = new Scratch(graph.getStationCount());
+        }
+        try {
+            return cheapestPath(s, sources, targets);
+        } finally {
+            if (scratches.size() < CompactGraph.MAX_POOLED_SCRATCHES) {
+                scratches.offer(s);
+            }
+        }
+    }
+
+    private List<Graph.Connection> cheapestPath(Scratch s, Collection<Station> sources, Collection<Station> targets) {
+        int run = ++s.run;
+        s.forwardQueue.clear();
+        s.backwardQueue.clear();
+        for (int source : graph.indexesOf(sources)) {
+            s.reach(true, source, 0, -1, run);
+        }
+        for (int target : graph.indexesOf(targets)) {
+            s.reach(false, target, 0, -1, run);
+        }
+
+        double best = Double.MAX_VALUE;
+        int meeting = -1;
+        while (true) {
+            double forwardKey = s.forwardQueue.isEmpty() ? Double.MAX_VALUE : s.forwardQueue.peekKey();
+            double backwardKey = s.backwardQueue.isEmpty() ? Double.MAX_VALUE : s.backwardQueue.peekKey();
+            if (Math.min(forwardKey, backwardKey) >= best) {
+                break;
+            }
+            boolean forward = forwardKey <= backwardKey;
+            int station = forward ? s.forwardQueue.poll() : s.backwardQueue.poll();
+            double distance = forward ? s.forwardDistance[station] : s.backwardDistance[station];
+            if (s.reached(!forward, station, run)) {
+                double total = distance + (forward ? s.backwardDistance[station] : s.forwardDistance[station]);
+                if (total < best) {
+                    best = total;
+                    meeting = station;
+                }
+            }
+            if (stalled(s, forward, station, distance, run)) {
+                continue;
+            }
+            if (forward) {
+                for (int a = upFirst[station]; a < upFirst[station + 1]; a++) {
+                    s.reach(true, upTarget[a], distance + upWeight[a], a, run);
+                }
+            } else {
+                for (int a = downFirst[station]; a < downFirst[station + 1]; a++) {
+                    s.reach(false, downSource[a], distance + downWeight[a], a, run);
+                }
+            }
+        }
+        if (meeting < 0) {
+            return null;
+        }
+
+        List<Graph.Connection> path = new ArrayList<>();
+        Deque<Integer> forwardArcs = new ArrayDeque<>();
+        for (int station = meeting; s.forwardParent[station] >= 0; station = upSourceOf(s.forwardParent[station])) {
+            forwardArcs.push(s.forwardParent[station]);
+        }
+        for (int arc : forwardArcs) {
+            unpackUp(arc, path);
+        }
+        for (int station = meeting; s.backwardParent[station] >= 0; station = downTargetOf(s.backwardParent[station])) {
+            unpackDown(s.backwardParent[station], path);
+        }
+        return path;
+    }
+
+    /**
+     * Stall-on-demand: a station reached more cheaply through a more important neighbour cannot be
+     * on a cheapest upward path, so its arcs are not relaxed.
+     */
+    private boolean stalled(Scratch s, boolean forward, int station, double distance, int run) {
+        if (forward) {
+            for (int a = downFirst[station]; a < downFirst[station + 1]; a++) {
+                int from = downSource[a];
+                if (s.reached(true, from, run) && s.forwardDistance[from] + downWeight[a] < distance) {
+                    return true;
+                }
+            }
+        } else {
+            for (int a = upFirst[station]; a < upFirst[station + 1]; a++) {
+                int to = upTarget[a];
+                if (s.reached(false, to, run) && s.backwardDistance[to] + upWeight[a] < distance) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // Parents are stored as arcs; the station an arc belongs to is found by a binary search in its CSR offsets
+    private int upSourceOf(int arc) {
+        return ownerOf(upFirst, arc);
+    }
+
+    private int downTargetOf(int arc) {
+        return ownerOf(downFirst, arc);
+    }
+
+    private static int ownerOf(int[] first, int arc) {
+        int low = 0;
+        int high = first.length - 2;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (first[mid] <= arc) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Appends the connections of the upward arc, expanding shortcuts through their middle station.
+     */
+    private void unpackUp(int arc, List<Graph.Connection> path) {
+        if (upEdge[arc] >= 0) {
+            path.add(graph.getConnection(upEdge[arc]));
+        } else {
+            unpack(upSourceOf(arc), upTarget[arc], upMiddle[arc], path);
+        }
+    }
+
+    private void unpackDown(int arc, List<Graph.Connection> path) {
+        if (downEdge[arc] >= 0) {
+            path.add(graph.getConnection(downEdge[arc]));
+        } else {
+            unpack(downSource[arc], downTargetOf(arc), downMiddle[arc], path);
+        }
+    }
+
+    /**
+     * Appends the connections of the shortcut from -> to: from -> middle is stored at the middle
+     * station as a downward arc, middle -> to as an upward one.
+     */
+    private void unpack(int from, int to, int middle, List<Graph.Connection> path) {
+        for (int a = downFirst[middle]; a < downFirst[middle + 1]; a++) {
+            if (downSource[a] == from) {
+                unpackDown(a, path);
+                break;
+            }
+        }
+        for (int a = upFirst[middle]; a < upFirst[middle + 1]; a++) {
+            if (upTarget[a] == to) {
+                unpackUp(a, path);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Returns the cheapest edge from one station to another, the lowest edge id on ties.
+     */
+    private int cheapestEdge(int from, int to) {
+        int best = -1;
+        for (int e = graph.firstEdge[from]; e < graph.firstEdge[from + 1]; e++) {
+            if (graph.edgeTarget[e] == to && (best < 0 || graph.edgePrice[e] < graph.edgePrice[best])) {
+                best = e;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Writes the hierarchy to a file. Stations are stored by id, so the file can be loaded into
+     * any graph built from the same data.
+     */
+    public void save(String filePath) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(Paths.get(filePath))))) {
+            out.writeInt(MAGIC);
+            out.writeLong(fingerprint);
+            int n = graph.getStationCount();
+            out.writeInt(n);
+            for (int s = 0; s < n; s++) {
+                out.writeUTF(graph.getStation(s).getId());
+            }
+            out.writeInt(upTarget.length);
+            for (int s = 0; s < n; s++) {
+                for (int a = upFirst[s]; a < upFirst[s + 1]; a++) {
+                    writeArc(out, s, upTarget[a], upWeight[a], upMiddle[a]);
+                }
+            }
+            out.writeInt(downSource.length);
+            for (int s = 0; s < n; s++) {
+                for (int a = downFirst[s]; a < downFirst[s + 1]; a++) {
+                    writeArc(out, downSource[a], s, downWeight[a], downMiddle[a]);
+                }
+            }
+        }
+    }
+
+    private static void writeArc(DataOutputStream out, int from, int to, double weight, int middle) throws IOException {
+        out.writeInt(from);
+        out.writeInt(to);
+        out.writeDouble(weight);
+        out.writeInt(middle);
+    }
+
+    /**
+     * Reads a hierarchy written by {@link #save} for the given graph. Fails if the file is not a
+     * hierarchy or was built from different stations or prices.
+     */
+    public static ContractionHierarchy load(String filePath, CompactGraph graph) throws IOException {
+        long fingerprint = fingerprint(graph);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(Paths.get(filePath))))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a contraction hierarchy: " + filePath);
+            }
+            if (in.readLong() != fingerprint || in.readInt() != graph.getStationCount()) {
+                throw new IOException("Contraction hierarchy was built for other data: " + filePath);
+            }
+            Map<String, Integer> ids = new HashMap<>();
+            for (int s = 0; s < graph.getStationCount(); s++) {
+                ids.put(graph.getStation(s).getId(), s);
+            }
+            int[] station = new int[graph.getStationCount()];
+            for (int s = 0; s < station.length; s++) {
+                Integer id = ids.get(in.readUTF());
+                if (id == null) {
+                    throw new IOException("Contraction hierarchy was built for other data: " + filePath);
+                }
+                station[s] = id;
+            }
+            ArcList up = readArcs(in, station);
+            ArcList down = readArcs(in, station);
+            return new ContractionHierarchy(graph, fingerprint, up, down);
+        }
+    }
+
+    private static ArcList readArcs(DataInputStream in, int[] station) throws IOException {
+        int count = in.readInt();
+        ArcList arcs = new ArcList(count);
+        for (int i = 0; i < count; i++) {
+            int from = station[in.readInt()];
+            int to = station[in.readInt()];
+            double weight = in.readDouble();
+            int middle = in.readInt();
+            arcs.add(from, to, weight, middle == ORIGINAL ? ORIGINAL : station[middle]);
+        }
+        return arcs;
+    }
+
+    /**
+     * Hash of the price graph that does not depend on the order of the stations: station ids and
+     * the cheapest price to every neighbour, in id order.
+     */
+    static long fingerprint(CompactGraph graph) {
+        Integer[] order = new Integer[graph.getStationCount()];
+        for (int s = 0; s < order.length; s++) {
+            order[s] = s;
+        }
+        Arrays.sort(order, Comparator.comparing(s -> graph.getStation(s).getId()));
+        long hash = 1125899906842597L;
+        for (int s : order) {
+            hash = 31 * hash + graph.getStation(s).getId().hashCode();
+            TreeMap<String, Double> prices = new TreeMap<>();
+            for (int e = graph.firstEdge[s]; e < graph.firstEdge[s + 1]; e++) {
+                prices.merge(graph.getStation(graph.edgeTarget[e]).getId(), graph.edgePrice[e], Math::min);
+            }
+            for (Map.Entry<String, Double> price : prices.entrySet()) {
+                hash = 31 * hash + price.getKey().hashCode();
+                hash = 31 * hash + Double.hashCode(price.getValue());
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Query arrays, used by one query at a time; entries are valid only while the stamp equals the
+     * current run.
+     */
+    private static final class Scratch {
+        final IndexedMinHeap forwardQueue;
+        final IndexedMinHeap backwardQueue;
+        final double[] forwardDistance;
+        final double[] backwardDistance;
+        final int[] forwardParent; // upward arc that led here, -1 at a source
+        final int[] backwardParent; // downward arc that led here, -1 at a target
+        final int[] forwardRun;
+        final int[] backwardRun;
+        int run;
+
+        Scratch(int n) {
+            forwardQueue = new IndexedMinHeap(n);
+            backwardQueue = new IndexedMinHeap(n);
+            forwardDistance = new double[n];
+            backwardDistance = new double[n];
+            forwardParent = new int[n];
+            backwardParent = new int[n];
+            forwardRun = new int[n];
+            backwardRun = new int[n];
+        }
+
+        boolean reached(boolean forward, int station, int run) {
+            return (forward ? forwardRun : backwardRun)[station] == run;
+        }
+
+        void reach(boolean forward, int station, double distance, int arc, int run) {
+            double[] distances = forward ? forwardDistance : backwardDistance;
+            int[] runs = forward ? forwardRun : backwardRun;
+            if (runs[station] == run && distance >= distances[station]) {
+                return;
+            }
+            runs[station] = run;
+            distances[station] = distance;
+            (forward ? forwardParent : backwardParent)[station] = arc;
+            (forward ? forwardQueue : backwardQueue).offer(station, distance);
+        }
+    }
+
+    /**
+     * Growable list of arcs (from, to, weight, middle) that is turned into CSR arrays at the end.
+     */
+    private static final class ArcList {
+        int[] from;
+        int[] to;
+        double[] weight;
+        int[] middle;
+        int size;
+
+        ArcList(int capacity) {
+            from = new int[Math.max(capacity, 4)];
+            to = new int[from.length];
+            weight = new double[from.length];
+            middle = new int[from.length];
+        }
+
+        void add(int from, int to, double weight, int middle) {
+            if (size == this.from.length) {
+                int capacity = size * 2;
+                this.from = Arrays.copyOf(this.from, capacity);
+                this.to = Arrays.copyOf(this.to, capacity);
+                this.weight = Arrays.copyOf(this.weight, capacity);
+                this.middle = Arrays.copyOf(this.middle, capacity);
+            }
+            this.from[size] = from;
+            this.to[size] = to;
+            this.weight[size] = weight;
+            this.middle[size] = middle;
+            size++;
+        }
+
+        /**
+         * Groups the arcs by source (byFrom) or by target and returns {first, other end, middle, order},
+         * where order maps every CSR position to its index in this list. Arcs of a station keep their order.
+         */
+        int[][] sortBy(int n, boolean byFrom) {
+            int[] key = byFrom ? from : to;
+            int[] other = byFrom ? to : from;
+            int[] first = new int[n + 1];
+            for (int i = 0; i < size; i++) {
+                first[key[i] + 1]++;
+            }
+            for (int s = 0; s < n; s++) {
+                first[s + 1] += first[s];
+            }
+            int[] next = Arrays.copyOf(first, n);
+            int[] ends = new int[size];
+            int[] middles = new int[size];
+            int[] order = new int[size];
+            for (int i = 0; i < size; i++) {
+                int position = next[key[i]]++;
+                ends[position] = other[i];
+                middles[position] = middle[i];
+                order[position] = i;
+            }
+            return new int[][]{first, ends, middles, order};
+        }
+
+        double[] weightsInOrder(int[] order) {
+            double[] weights = new double[order.length];
+            for (int i = 0; i < order.length; i++) {
+                weights[i] = weight[order[i]];
+            }
+            return weights;
+        }
+    }
+
+    /**
+     * Arcs of one station in the graph that is being contracted, at most one per neighbour.
+     */
+    private static final class Arcs {
+        int[] station = new int[4];
+        double[] weight = new double[4];
+        int[] middle = new int[4];
+        int size;
+
+        int find(int neighbour) {
+            for (int i = 0; i < size; i++) {
+                if (station[i] == neighbour) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Adds the arc, or lowers the weight of the existing arc to the same neighbour.
+         */
+        void put(int neighbour, double w, int m) {
+            int i = find(neighbour);
+            if (i >= 0) {
+                if (w < weight[i]) {
+                    weight[i] = w;
+                    middle[i] = m;
+                }
+                return;
+            }
+            if (size == station.length) {
+                station = Arrays.copyOf(station, size * 2);
+                weight = Arrays.copyOf(weight, size * 2);
+                middle = Arrays.copyOf(middle, size * 2);
+            }
+            station[size] = neighbour;
+            weight[size] = w;
+            middle[size] = m;
+            size++;
+        }
+
+        void remove(int neighbour) {
+            int i = find(neighbour);
+            if (i >= 0) {
+                size--;
+                station[i] = station[size];
+                weight[i] = weight[size];
+                middle[i] = middle[size];
+            }
+        }
+    }
+
+    /**
+     * One contraction run. Witness searches only read the remaining graph, so every station of a
+     * round is simulated and contracted on its own thread; the graph is only changed between rounds.
+     */
+    private static final class Contraction {
+        private final CompactGraph graph;
+        private final int n;
+        private final Arcs[] out;
+        private final Arcs[] in;
+        private final boolean[] contracted;
+        private final boolean[] inRound; // stations contracted in the current round
+        private final int[] priority;
+        private final int[] deletedNeighbours;
+        private final int[] level;
+        private final ThreadLocal<Witness> witness;
+
+        Contraction(CompactGraph graph) {
+            this.graph = graph;
+            n = graph.getStationCount();
+            out = new Arcs[n];
+            in = new Arcs[n];
+            for (int s = 0; s < n; s++) {
+                out[s] = new Arcs();
+                in[s] = new Arcs();
+            }
+            for (int e = 0; e < graph.getEdgeCount(); e++) {
+                int from = graph.edgeSource[e];
+                int to = graph.edgeTarget[e];
+                if (from != to) {
+                    out[from].put(to, graph.edgePrice[e], ORIGINAL);
+                    in[to].put(from, graph.edgePrice[e], ORIGINAL);
+                }
+            }
+            contracted = new boolean[n];
+            inRound = new boolean[n];
+            priority = new int[n];
+            deletedNeighbours = new int[n];
+            level = new int[n];
+            witness = ThreadLocal.withInitial(() -> new Witness(n));
+        }
+
+        ContractionHierarchy run() {
+            ArcList up = new ArcList(graph.getEdgeCount());
+            ArcList down = new ArcList(graph.getEdgeCount());
+            int[] remaining = IntStream.range(0, n).toArray();
+            IntStream.of(remaining).parallel().forEach(s -> priority[s] = priority(s));
+
+            while (remaining.length > 0) {
+                int[] round = IntStream.of(remaining).parallel().filter(this::isLocalMinimum).toArray();
+                for (int s : round) {
+                    inRound[s] = true;
+                }
+                List<ArcList> shortcuts = IntStream.of(round).parallel()
+                        .mapToObj(s -> shortcuts(s, true))
+                        .collect(Collectors.toList());
+
+                for (int i = 0; i < round.length; i++) {
+                    contract(round[i], shortcuts.get(i), up, down);
+                }
+                int[] touched = IntStream.of(round).flatMap(s -> IntStream.concat(
+                        IntStream.of(out[s].station).limit(out[s].size),
+                        IntStream.of(in[s].station).limit(in[s].size))).distinct().toArray();
+                for (int s : round) {
+                    inRound[s] = false;
+                    out[s] = null;
+                    in[s] = null;
+                }
+                IntStream.of(touched).parallel().forEach(s -> priority[s] = priority(s));
+                remaining = IntStream.of(remaining).filter(s -> !contracted[s]).toArray();
+            }
+            return new ContractionHierarchy(graph, fingerprint(graph), up, down);
+        }
+
+        /**
+         * A station is contracted in this round if its priority is lower than that of every remaining
+         * neighbour (ties broken by id), so no two stations of a round are adjacent.
+         */
+        private boolean isLocalMinimum(int s) {
+            return lowerThanAll(s, out[s]) && lowerThanAll(s, in[s]);
+        }
+
+        private boolean lowerThanAll(int s, Arcs arcs) {
+            for (int i = 0; i < arcs.size; i++) {
+                int other = arcs.station[i];
+                if (priority[other] < priority[s] || priority[other] == priority[s] && other < s) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Cheap stations to contract first: few shortcuts compared with the arcs removed, few
+         * contracted neighbours and a low level keep the hierarchy flat and the queries small.
+         */
+        private int priority(int s) {
+            int added = shortcuts(s, false).size;
+            int edgeDifference = added - out[s].size - in[s].size;
+            return 4 * edgeDifference + 2 * deletedNeighbours[s] + level[s];
+        }
+
+        /**
+         * Returns the shortcuts needed when s is removed: u -> x through s for every pair of
+         * neighbours without a witness path that is at least as cheap. When contracting, the witness
+         * searches avoid every station of the round, so the shortcuts of a round are correct together;
+         * for a priority only s itself is avoided.
+         */
+        private ArcList shortcuts(int s, boolean avoidRound) {
+            ArcList shortcuts = new ArcList(0);
+            Arcs incoming = in[s];
+            Arcs outgoing = out[s];
+            if (incoming.size == 0 || outgoing.size == 0) {
+                return shortcuts;
+            }
+            double maxOut = 0;
+            for (int j = 0; j < outgoing.size; j++) {
+                maxOut = Math.max(maxOut, outgoing.weight[j]);
+            }
+            Witness search = witness.get();
+            for (int i = 0; i < incoming.size; i++) {
+                int u = incoming.station[i];
+                double toS = incoming.weight[i];
+                search.run(u, s, toS + maxOut, avoidRound ? WITNESS_SETTLE_LIMIT : PRIORITY_SETTLE_LIMIT, avoidRound);
+                for (int j = 0; j < outgoing.size; j++) {
+                    int x = outgoing.station[j];
+                    double via = toS + outgoing.weight[j];
+                    if (x != u && search.distance(x) > via) {
+                        shortcuts.add(u, x, via, s);
+                    }
+                }
+            }
+            return shortcuts;
+        }
+
+        /**
+         * Removes s: its arcs to remaining stations become the hierarchy arcs of s, and the
+         * shortcuts replace the paths through it.
+         */
+        private void contract(int s, ArcList shortcuts, ArcList up, ArcList down) {
+            for (int i = 0; i < out[s].size; i++) {
+                int to = out[s].station[i];
+                up.add(s, to, out[s].weight[i], out[s].middle[i]);
+                in[to].remove(s);
+            }
+            for (int i = 0; i < in[s].size; i++) {
+                int from = in[s].station[i];
+                down.add(from, s, in[s].weight[i], in[s].middle[i]);
+                out[from].remove(s);
+            }
+            for (int i = 0; i < out[s].size; i++) {
+                neighbourContracted(out[s].station[i], s);
+            }
+            for (int i = 0; i < in[s].size; i++) {
+                if (out[s].find(in[s].station[i]) < 0) {
+                    neighbourContracted(in[s].station[i], s);
+                }
+            }
+            for (int i = 0; i < shortcuts.size; i++) {
+                out[shortcuts.from[i]].put(shortcuts.to[i], shortcuts.weight[i], shortcuts.middle[i]);
+                in[shortcuts.to[i]].put(shortcuts.from[i], shortcuts.weight[i], shortcuts.middle[i]);
+            }
+            contracted[s] = true;
+        }
+
+        private void neighbourContracted(int neighbour, int s) {
+            deletedNeighbours[neighbour]++;
+            level[neighbour] = Math.max(level[neighbour], level[s] + 1);
+        }
+
+        /**
+         * Bounded Dijkstra over the remaining graph used to look for witness paths.
+         */
+        private final class Witness {
+            final IndexedMinHeap queue;
+            final double[] distances;
+            final int[] runs;
+            int run;
+
+            Witness(int n) {
+                queue = new IndexedMinHeap(n);
+                distances = new double[n];
+                runs = new int[n];
+            }
+
+            void run(int source, int skipped, double maxDistance, int settleLimit, boolean avoidRound) {
+                run++;
+                queue.clear();
+                runs[source] = run;
+                distances[source] = 0;
+                queue.offer(source, 0);
+                int settled = 0;
+                while (!queue.isEmpty() && queue.peekKey() <= maxDistance && settled++ < settleLimit) {
+                    int station = queue.poll();
+                    Arcs arcs = out[station];
+                    for (int i = 0; i < arcs.size; i++) {
+                        int next = arcs.station[i];
+                        if (next == skipped || avoidRound && inRound[next]) {
+                            continue;
+                        }
+                        double distance = distances[station] + arcs.weight[i];
+                        if (distance <= maxDistance && (runs[next] != run || distance < distances[next])) {
+                            runs[next] = run;
+                            distances[next] = distance;
+                            queue.offer(next, distance);
+                        }
+                    }
+                }
+            }
+
+            double distance(int station) {
+                return runs[station] == run ? distances[station] : Double.MAX_VALUE;
+            }
+        }
+    }
+}
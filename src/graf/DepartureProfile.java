@@ -0,0 +1,119 @@
+package graf;
+
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Earliest arrival between two cities as a function of the start time, for a whole day.
+ * Holds every departure of the day that is worth taking: one that arrives strictly earlier
+ * than anything leaving later. Answering a start time is a binary search instead of a new search.
+ * Times are minutes since midnight of the start day; arrivals may run past 24h.
+ */
+public class DepartureProfile {
+    private final String sourceCity;
+    private final String destinationCity;
+    private final CompactGraph graph;
+    private final List<ConnectionScan.Journey> journeys; // sorted by departure, may run into the next day
+    private final int departuresToday;
+
+    DepartureProfile(String sourceCity, String destinationCity, CompactGraph graph,
+                     List<ConnectionScan.Journey> journeys) {
+        this.sourceCity = sourceCity;
+        this.destinationCity = destinationCity;
+        this.graph = graph;
+        this.journeys = journeys;
+        int count = 0;
+        while (count < journeys.size() && journeys.get(count).departure < CompactGraph.MINUTES_PER_DAY) {
+            count++;
+        }
+        this.departuresToday = count;
+    }
+
+    public String getSourceCity() {
+        return sourceCity;
+    }
+
+    public String getDestinationCity() {
+        return destinationCity;
+    }
+
+    /**
+     * Returns the number of useful departures during the day.
+     */
+    public int getDepartureCount() {
+        return departuresToday;
+    }
+
+    public LocalTime getDepartureTime(int index) {
+        return toLocalTime(journeys.get(index).departure);
+    }
+
+    public LocalTime getArrivalTime(int index) {
+        return toLocalTime(journeys.get(index).arrival);
+    }
+
+    /**
+     * Returns how many midnights pass between the departure and the arrival.
+     */
+    public int getArrivalDay(int index) {
+        return journeys.get(index).arrival / CompactGraph.MINUTES_PER_DAY;
+    }
+
+    /**
+     * Returns the travel time in minutes of a departure, from leaving to arriving.
+     */
+    public long getTravelTime(int index) {
+        return journeys.get(index).arrival - journeys.get(index).departure;
+    }
+
+    /**
+     * Returns the shortest total time in minutes, waiting included, when starting at startTime,
+     * or -1 if the destination cannot be reached.
+     */
+    public long getTotalTime(LocalTime startTime) {
+        int index = firstDepartureAtOrAfter(CompactGraph.minuteOfDay(startTime));
+        return index < 0 ? -1 : journeys.get(index).arrival - CompactGraph.minuteOfDay(startTime);
+    }
+
+    /**
+     * Returns the route of a departure of the day.
+     */
+    public RouteFinder.Route getRoute(int index) {
+        return RouteFinder.buildRoute(path(journeys.get(index)), getDepartureTime(index));
+    }
+
+    /**
+     * Returns the earliest-arrival route when starting at startTime, or null if there is none.
+     */
+    public RouteFinder.Route getRoute(LocalTime startTime) {
+        int index = firstDepartureAtOrAfter(CompactGraph.minuteOfDay(startTime));
+        return index < 0 ? null : RouteFinder.buildRoute(path(journeys.get(index)), startTime);
+    }
+
+    private int firstDepartureAtOrAfter(int minute) {
+        int low = 0;
+        int high = journeys.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (journeys.get(mid).departure < minute) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low < journeys.size() ? low : -1;
+    }
+
+    private List<Graph.Connection> path(ConnectionScan.Journey journey) {
+        List<Graph.Connection> path = new ArrayList<>();
+        for (ConnectionScan.Journey leg = journey; leg != null; leg = leg.next) {
+            path.add(graph.getConnection(leg.edge));
+        }
+        return path;
+    }
+
+    private static LocalTime toLocalTime(int minutes) {
+        return LocalTime.of(0, 0).plusMinutes(Math.floorMod(minutes, CompactGraph.MINUTES_PER_DAY));
+    }
+}
@@ -4,42 +4,249 @@ import stanice.Station;
 import odlasci.Departures;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Represents a directed weighted graph of stations and connections.
+ * A graph is built up with the add methods and then frozen: a frozen graph rejects changes
+ * and has all its search indexes built, so one instance can be shared by any number of threads.
  */
 public class Graph {
-    private final Map<Station, List<Connection>> adjacencyList;
+    private static final AtomicLong VERSIONS = new AtomicLong();
+
+    private Map<Station, List<Connection>> adjacencyList; // null once frozen, see freeze()
+    private boolean frozen;
+    private volatile long version = VERSIONS.incrementAndGet(); // unique across all graphs, changes on every edit
+    // Search indexes are built lazily and dropped on every change
+    private CompactGraph compactGraph;
+    private ConnectionScan connectionScan;
+    private RoundBasedRouter roundBasedRouter;
+    private Map<String, List<Station>> cityStations;
+    private GridBounds gridBounds;
+    private volatile ContractionHierarchy contractionHierarchy; // optional, see setContractionHierarchy
 
     public Graph() {
         this.adjacencyList = new HashMap<>();
     }
 
     public void addStation(Station station) {
-        adjacencyList.putIfAbsent(station, new ArrayList<>());
+        checkWritable();
+        if (adjacencyList.putIfAbsent(station, new ArrayList<>()) == null) {
+            invalidateIndexes();
+        }
     }
 
     public void addConnection(Departures departure) {
+        checkWritable();
         Station source = departure.getSource();
         Station destination = departure.getDestination();
         addStation(source);
         addStation(destination);
         adjacencyList.get(source).add(new Connection(source, destination, departure.getPrice(),
                 departure.getTravelTime(), false, departure));
+        invalidateIndexes();
     }
 
     public void addTransfer(Station source, Station destination, double transferCost, long transferTime) {
+        checkWritable();
         addStation(source);
         addStation(destination);
         adjacencyList.get(source).add(new Connection(source, destination, transferCost, transferTime, true, null));
+        invalidateIndexes();
+    }
+
+    private void checkWritable() {
+        if (frozen) {
+            throw new UnsupportedOperationException("Graph is frozen");
+        }
+    }
+
+    /**
+     * Makes this graph read-only and builds every search index up front, so that queries
+     * from several threads only ever read it. The edges are then kept only in the compact
+     * graph, and connections are rebuilt from it when asked for. Returns this graph.
+     */
+    public Graph freeze() {
+        if (!frozen) {
+            frozen = true;
+            buildCityIndex();
+            getCompactGraph();
+            getConnectionScan();
+            getRoundBasedRouter();
+            getGridBounds();
+            adjacencyList = null;
+        }
+        return this;
+    }
+
+    /**
+     * Returns a frozen copy of the current state of the graph; later changes to this graph
+     * do not affect it. A frozen graph is its own snapshot.
+     */
+    public Graph snapshot() {
+        if (frozen) {
+            return this;
+        }
+        Graph copy = new Graph();
+        for (Map.Entry<Station, List<Connection>> entry : adjacencyList.entrySet()) {
+            copy.adjacencyList.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+        }
+        return copy.freeze();
+    }
+
+    /**
+     * Returns a frozen copy of this frozen graph in which the given stations have new connection
+     * lists. This graph is not changed, so queries running on it finish undisturbed. The copy shares
+     * the stations and every unchanged list, and derives its search indexes from the indexes of
+     * this graph: only the changed stations are sorted again, but the index arrays are still copied
+     * in full, so the cost is a linear pass over the network. The contraction hierarchy is not
+     * carried over, so cheapest single-route queries on the copy fall back to the regular search.
+     */
+    public Graph withConnections(Map<Station, List<Connection>> changes) {
+        if (!frozen) {
+            throw new IllegalStateException("Only a frozen graph can be updated incrementally");
+        }
+        CompactGraph base = getCompactGraph();
+        boolean[] changed = new boolean[base.getStationCount()];
+        for (Map.Entry<Station, List<Connection>> entry : changes.entrySet()) {
+            int station = base.indexOf(entry.getKey());
+            if (station < 0) {
+                throw new IllegalArgumentException("Unknown station: " + entry.getKey());
+            }
+            for (Connection conn : entry.getValue()) {
+                if (!conn.getSource().equals(entry.getKey()) || base.indexOf(conn.getDestination()) < 0) {
+                    throw new IllegalArgumentException("Connection does not fit the graph: " + conn.getSource()
+                            + " -> " + conn.getDestination());
+                }
+            }
+            changed[station] = true;
+        }
+        Graph copy = new Graph();
+        copy.adjacencyList = null;
+        copy.frozen = true;
+        copy.cityStations = cityStations;
+        copy.compactGraph = new CompactGraph(changes, base, changed);
+        copy.connectionScan = new ConnectionScan(getConnectionScan(), copy.compactGraph, changed);
+        copy.gridBounds = new GridBounds(copy.compactGraph, getGridBounds());
+        // The router keeps no index of its own, it runs on the compact graph directly
+        copy.roundBasedRouter = new RoundBasedRouter(copy.compactGraph);
+        return copy;
     }
 
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    /**
+     * Returns the connections leaving station. A frozen graph rebuilds them from the compact graph
+     * on every call, without the departures that take no time, which the searches skip.
+     */
     public List<Connection> getConnections(Station station) {
+        if (adjacencyList == null) {
+            return compactGraph.getConnections(station);
+        }
         return adjacencyList.getOrDefault(station, Collections.emptyList());
     }
 
     public Set<Station> getStations() {
-        return adjacencyList.keySet();
+        if (adjacencyList == null) {
+            return compactGraph.getStations();
+        }
+        return Collections.unmodifiableSet(adjacencyList.keySet());
+    }
+
+    /**
+     * Returns the bus and train stations of a city, or an empty list for an unknown city.
+     */
+    public List<Station> getCityStations(String cityId) {
+        if (cityStations == null) {
+            buildCityIndex();
+        }
+        return Collections.unmodifiableList(cityStations.getOrDefault(cityId, Collections.emptyList()));
+    }
+
+    private void buildCityIndex() {
+        Map<String, List<Station>> index = new HashMap<>();
+        for (Station station : getStations()) {
+            index.computeIfAbsent(station.getCityId(), k -> new ArrayList<>()).add(station);
+        }
+        cityStations = index;
+    }
+
+    /**
+     * Returns the compact array form of the current state of the graph that the search engines run on.
+     */
+    public CompactGraph getCompactGraph() {
+        if (compactGraph == null) {
+            compactGraph = new CompactGraph(adjacencyList);
+        }
+        return compactGraph;
+    }
+
+    /**
+     * Returns the connection scan index for the current state of the graph.
+     */
+    ConnectionScan getConnectionScan() {
+        if (connectionScan == null) {
+            connectionScan = new ConnectionScan(getCompactGraph());
+        }
+        return connectionScan;
+    }
+
+    /**
+     * Returns the round-based router for the current state of the graph.
+     */
+    RoundBasedRouter getRoundBasedRouter() {
+        if (roundBasedRouter == null) {
+            roundBasedRouter = new RoundBasedRouter(getCompactGraph());
+        }
+        return roundBasedRouter;
+    }
+
+    /**
+     * Returns the A* grid lower bounds for the current state of the graph.
+     */
+    GridBounds getGridBounds() {
+        if (gridBounds == null) {
+            gridBounds = new GridBounds(getCompactGraph());
+        }
+        return gridBounds;
+    }
+
+    /**
+     * Returns the contraction hierarchy used for single cheapest-route queries, or null if none was prepared.
+     */
+    public ContractionHierarchy getContractionHierarchy() {
+        return contractionHierarchy;
+    }
+
+    /**
+     * Lets cheapest-route queries use a hierarchy built for the current state of this graph.
+     * The hierarchy is dropped when the graph changes.
+     */
+    public void setContractionHierarchy(ContractionHierarchy hierarchy) {
+        if (hierarchy != null && hierarchy.getGraph() != getCompactGraph()) {
+            throw new IllegalArgumentException("Contraction hierarchy belongs to another graph");
+        }
+        contractionHierarchy = hierarchy;
+    }
+
+    /**
+     * Returns a number that identifies this graph in its current state: no other graph has it,
+     * and it changes whenever the graph is edited. Caches use it to notice stale results.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    private void invalidateIndexes() {
+        version = VERSIONS.incrementAndGet();
+        compactGraph = null;
+        connectionScan = null;
+        roundBasedRouter = null;
+        cityStations = null;
+        gridBounds = null;
+        contractionHierarchy = null;
     }
 
     /**
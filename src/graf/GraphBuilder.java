@@ -1,5 +1,6 @@
 package graf;
 
+import podaci.BinaryTimetable;
 import podaci.TransportDataParser;
 import podaci.TransportDataGenerator;
 import stanice.BusStation;
@@ -10,13 +11,17 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 
 /**
  * Builds a graph from TransportDataParser output.
+ * The returned graph is frozen and can be shared between threads.
  */
 public class GraphBuilder {
     private final Graph graph;
@@ -24,6 +29,7 @@ public class GraphBuilder {
     private final Map<String, Station> stationMap;
     private final Map<String, Station> busStationMap;
     private final Map<String, Station> trainStationMap;
+    private String[][] countryMap = new String[0][0];
 
     public GraphBuilder() {
         this.graph = new Graph();
@@ -44,57 +50,325 @@ public class GraphBuilder {
         return props;
     }
 
+    /**
+     * Builds the graph while the file is being read: every station and departure goes into the
+     * graph as soon as the parser reaches it, so the file's records are never all in memory.
+     * The file's map is kept as well (see {@link #getCountryMap()}), so callers that also need
+     * it do not have to read the file a second time.
+     */
     public Graph buildFromJson(String jsonFilePath) throws IOException {
-        TransportDataParser.TransportData data = TransportDataParser.readTransportData(jsonFilePath);
+        double transferCost = Double.parseDouble(config.getProperty("transfer_cost", "5.0"));
+        long transferTime = Long.parseLong(config.getProperty("transfer_time", "10"));
+        int[] skipped = new int[1];
 
-        for (TransportDataGenerator.Station s : data.stations) {
-            Station busStation = new BusStation(s.busStation, s.city);
-            Station trainStation = new TrainStation(s.trainStation, s.city);
-            stationMap.put(s.busStation, busStation);
-            stationMap.put(s.trainStation, trainStation);
-            busStationMap.put(s.city, busStation);
-            trainStationMap.put(s.city, trainStation);
-            graph.addStation(busStation);
-            graph.addStation(trainStation);
+        TransportDataParser.streamTransportData(jsonFilePath, new TransportDataParser.TransportDataHandler() {
+            @Override
+            public void countryMap(String[][] countryMap) {
+                GraphBuilder.this.countryMap = countryMap;
+            }
+
+            @Override
+            public void station(TransportDataGenerator.Station s) {
+                addStation(s.city, s.busStation, s.trainStation, transferCost, transferTime);
+            }
 
-            double transferCost = Double.parseDouble(config.getProperty("transfer_cost", "5.0"));
-            long transferTime = Long.parseLong(config.getProperty("transfer_time", "10"));
-            graph.addTransfer(busStation, trainStation, transferCost, transferTime);
-            graph.addTransfer(trainStation, busStation, transferCost, transferTime);
+            @Override
+            public void departure(TransportDataGenerator.Departure d) {
+                Departures departure = toDeparture(d);
+                if (departure == null) {
+                    skipped[0]++;
+                    return;
+                }
+                graph.addConnection(departure);
+            }
+        });
+        if (skipped[0] > 0) {
+            System.out.println("Skipped " + skipped[0] + " departures due to invalid stations or types.");
         }
 
+        // Freezing builds the search indexes once, up front, instead of on the first query
+        return graph.freeze();
+    }
+
+    /**
+     * Builds the graph from a binary timetable (see {@link BinaryTimetable}). The file is
+     * memory-mapped and every departure comes straight from its fixed-width record, so there is
+     * no text to parse and no time string to convert.
+     */
+    public Graph buildFromBinary(String timetableFilePath) throws IOException {
+        double transferCost = Double.parseDouble(config.getProperty("transfer_cost", "5.0"));
+        long transferTime = Long.parseLong(config.getProperty("transfer_time", "10"));
+        List<Station> stations = new ArrayList<>(); // by binary station index
+
+        BinaryTimetable.read(timetableFilePath, new BinaryTimetable.TimetableHandler() {
+            @Override
+            public void countryMap(String[][] countryMap) {
+                GraphBuilder.this.countryMap = countryMap;
+            }
+
+            @Override
+            public void station(int city, String cityId, String busStation, String trainStation) {
+                addStation(cityId, busStation, trainStation, transferCost, transferTime);
+                stations.add(busStationMap.get(cityId));
+                stations.add(trainStationMap.get(cityId));
+            }
+
+            @Override
+            public void departure(int source, int destination, int minute, int duration, int price, int minTransferTime) {
+                Station from = stations.get(source);
+                Departures departure = new Departures(from, stations.get(destination), CompactGraph.timeOfDay(minute),
+                        CompactGraph.timeOfDay((minute + duration) % CompactGraph.MINUTES_PER_DAY), price, minTransferTime);
+                graph.addConnection(departure);
+            }
+        });
+
+        return graph.freeze();
+    }
+
+    private void addStation(String city, String busId, String trainId, double transferCost, long transferTime) {
+        Station busStation = new BusStation(busId, city);
+        Station trainStation = new TrainStation(trainId, city);
+        stationMap.put(busId, busStation);
+        stationMap.put(trainId, trainStation);
+        busStationMap.put(city, busStation);
+        trainStationMap.put(city, trainStation);
+        graph.addStation(busStation);
+        graph.addStation(trainStation);
+
+        graph.addTransfer(busStation, trainStation, transferCost, transferTime);
+        graph.addTransfer(trainStation, busStation, transferCost, transferTime);
+    }
+
+    /**
+     * Returns the departure described by d, or null (with a message) if its type or stations are unknown.
+     */
+    private Departures toDeparture(TransportDataGenerator.Departure d) {
+        Station source = stationMap.get(d.from);
+        Station destination;
+        if (d.type.equals("autobus")) {
+            destination = busStationMap.get(d.to);
+        } else if (d.type.equals("voz")) {
+            destination = trainStationMap.get(d.to);
+        } else {
+            System.out.println("Invalid departure type: " + d.type);
+            return null;
+        }
+
+        if (source == null || destination == null) {
+            System.out.println("Skipping departure: from=" + d.from + ", to=" + d.to);
+            return null;
+        }
+
+        LocalTime departureTime = LocalTime.parse(d.departureTime);
+        LocalTime arrivalTime = departureTime.plusMinutes(d.duration);
+        if (departureTime.getSecond() == 0 && departureTime.getNano() == 0) {
+            // Whole minutes come from the shared table instead of two new objects per departure
+            departureTime = CompactGraph.timeOfDay(CompactGraph.minuteOfDay(departureTime));
+            arrivalTime = CompactGraph.timeOfDay(CompactGraph.minuteOfDay(arrivalTime));
+        }
+        return new Departures(source, destination, departureTime, arrivalTime, d.price, d.minTransferTime);
+    }
+
+    /**
+     * Compares a graph built by this builder with the data in jsonFilePath and returns the
+     * timetable changes between them, or null if the file's map or stations differ and the graph
+     * has to be rebuilt. The file is streamed and compared with the graph's own departures, so
+     * no copy of the old data is needed, but a key is built and held for every departure of the
+     * graph: the cost grows with the size of the network, not with the number of changes.
+     */
+    public TransportDataParser.TransportDelta diff(Graph graph, String jsonFilePath) throws IOException {
+        Map<String, Integer> counts = new HashMap<>();
+        for (Departures departure : departures(graph)) {
+            counts.merge(key(record(departure)), 1, Integer::sum);
+        }
+        TransportDataParser.TransportDelta delta = new TransportDataParser.TransportDelta();
+        boolean[] rebuild = new boolean[1];
+        int[] stations = new int[1];
+
+        TransportDataParser.streamTransportData(jsonFilePath, new TransportDataParser.TransportDataHandler() {
+            @Override
+            public void countryMap(String[][] map) {
+                rebuild[0] |= !Arrays.deepEquals(map, countryMap);
+            }
+
+            @Override
+            public void station(TransportDataGenerator.Station s) {
+                Station busStation = busStationMap.get(s.city);
+                Station trainStation = trainStationMap.get(s.city);
+                stations[0]++;
+                rebuild[0] |= busStation == null || !busStation.getId().equals(s.busStation)
+                        || trainStation == null || !trainStation.getId().equals(s.trainStation);
+            }
+
+            @Override
+            public void departure(TransportDataGenerator.Departure d) {
+                if (!rebuild[0] && counts.merge(key(d), -1, Integer::sum) < 0) {
+                    delta.added.add(d);
+                }
+            }
+        });
+        if (rebuild[0] || stations[0] != busStationMap.size()) {
+            return null;
+        }
+
+        // What is left in counts are departures of the graph that the file no longer has
+        for (Departures departure : departures(graph)) {
+            TransportDataGenerator.Departure d = record(departure);
+            String key = key(d);
+            int left = counts.get(key);
+            if (left > 0) {
+                delta.removed.add(d);
+                counts.put(key, left - 1);
+            }
+        }
+        return delta;
+    }
+
+    private static List<Departures> departures(Graph graph) {
+        List<Departures> departures = new ArrayList<>();
+        for (Station station : graph.getStations()) {
+            for (Graph.Connection conn : graph.getConnections(station)) {
+                if (!conn.isTransfer()) {
+                    departures.add(conn.getDeparture());
+                }
+            }
+        }
+        return departures;
+    }
+
+    /**
+     * The departure as a data file record, the inverse of {@link #toDeparture}.
+     */
+    private static TransportDataGenerator.Departure record(Departures departure) {
+        TransportDataGenerator.Departure d = new TransportDataGenerator.Departure();
+        d.type = departure.getDestination() instanceof BusStation ? "autobus" : "voz";
+        d.from = departure.getSource().getId();
+        d.to = departure.getDestination().getCityId();
+        d.departureTime = departure.getDepartureTime().toString();
+        d.duration = (int) departure.getTravelTime();
+        d.price = (int) departure.getPrice();
+        d.minTransferTime = departure.getMinWaitingTime();
+        return d;
+    }
+
+    // Records that build the same departure have the same key
+    private static String key(TransportDataGenerator.Departure d) {
+        return d.type + "|" + d.from + "|" + d.to + "|" + LocalTime.parse(d.departureTime)
+                + "|" + Math.floorMod(d.duration, CompactGraph.MINUTES_PER_DAY) + "|" + d.price
+                + "|" + d.minTransferTime;
+    }
+
+    /**
+     * Applies timetable changes to a graph built by this builder and returns the updated graph.
+     * The given graph and its stations are left as they are, so queries still running on it are not
+     * affected. Matching the changes only looks at the stations they leave from; the new graph's
+     * indexes are then derived from the old ones without sorting them again, but copied in full
+     * (see {@link Graph#withConnections}), so the update is still a linear pass over the network.
+     * Changes that name unknown stations or departures are skipped with a message.
+     */
+    public Graph applyDelta(Graph graph, TransportDataParser.TransportDelta delta) {
+        Map<Station, List<Graph.Connection>> changes = new HashMap<>();
         int skipped = 0;
-        for (TransportDataGenerator.Departure d : data.departures) {
-            Station source = stationMap.get(d.from);
-            Station destination;
-            if (d.type.equals("autobus")) {
-                destination = busStationMap.get(d.to);
-            } else if (d.type.equals("voz")) {
-                destination = trainStationMap.get(d.to);
-            } else {
-                System.out.println("Invalid departure type: " + d.type);
+        for (TransportDataGenerator.Departure d : delta.removed) {
+            if (!replace(graph, changes, d, null)) {
                 skipped++;
-                continue;
             }
-
-            if (source == null || destination == null) {
-                System.out.println("Skipping departure: from=" + d.from + ", to=" + d.to);
+        }
+        for (TransportDataGenerator.Departure d : delta.changed) {
+            Departures departure = toDeparture(d);
+            if (departure == null || !replace(graph, changes, d, departure)) {
+                skipped++;
+            }
+        }
+        for (TransportDataGenerator.Departure d : delta.added) {
+            Departures departure = toDeparture(d);
+            if (departure == null) {
                 skipped++;
                 continue;
             }
-
-            LocalTime departureTime = LocalTime.parse(d.departureTime);
-            LocalTime arrivalTime = departureTime.plusMinutes(d.duration);
-            Departures departure = new Departures(source, destination, departureTime,
-                    arrivalTime, d.price, d.minTransferTime);
-            source.addDeparture(departure);
-            graph.addConnection(departure);
+            connections(graph, changes, departure.getSource()).add(connectionOf(departure));
         }
         if (skipped > 0) {
-            System.out.println("Skipped " + skipped + " departures due to invalid stations or types.");
+            System.out.println("Skipped " + skipped + " changes due to invalid stations, types or departures.");
         }
+        return graph.withConnections(changes);
+    }
+
+    /**
+     * Removes the departure identified by d, or replaces it when replacement is not null.
+     * Returns false if there is no such departure.
+     */
+    private boolean replace(Graph graph, Map<Station, List<Graph.Connection>> changes,
+                            TransportDataGenerator.Departure d, Departures replacement) {
+        Departures identity = toDeparture(d);
+        if (identity == null) {
+            return false;
+        }
+        List<Graph.Connection> connections = connections(graph, changes, identity.getSource());
+        // Prefer a departure that matches in every field, in case two leave at the same minute
+        for (boolean exact : new boolean[]{true, false}) {
+            for (int i = 0; i < connections.size(); i++) {
+                Departures existing = connections.get(i).getDeparture();
+                if (existing != null && existing.getDestination().equals(identity.getDestination())
+                        && existing.getDepartureTime().equals(identity.getDepartureTime())
+                        && (!exact || existing.getTravelTime() == d.duration && existing.getPrice() == d.price
+                        && existing.getMinWaitingTime() == d.minTransferTime)) {
+                    if (replacement == null) {
+                        connections.remove(i);
+                    } else {
+                        connections.set(i, connectionOf(replacement));
+                    }
+                    return true;
+                }
+            }
+        }
+        System.out.println("No departure to change: from=" + d.from + ", to=" + d.to + " at " + d.departureTime);
+        return false;
+    }
+
+    private static List<Graph.Connection> connections(Graph graph, Map<Station, List<Graph.Connection>> changes,
+                                                      Station station) {
+        return changes.computeIfAbsent(station, s -> new ArrayList<>(graph.getConnections(s)));
+    }
+
+    private static Graph.Connection connectionOf(Departures departure) {
+        return new Graph.Connection(departure.getSource(), departure.getDestination(), departure.getPrice(),
+                departure.getTravelTime(), false, departure);
+    }
+
+    /**
+     * Optional preprocessing for cheapest-route queries: loads the contraction hierarchy of the graph
+     * from hierarchyFile, or builds it and saves it there if the file is missing or belongs to other
+     * data. The hierarchy is attached to the graph and also returned.
+     */
+    public ContractionHierarchy prepareCostHierarchy(Graph graph, String hierarchyFile) {
+        CompactGraph compact = graph.getCompactGraph();
+        ContractionHierarchy hierarchy = null;
+        if (Files.exists(Paths.get(hierarchyFile))) {
+            try {
+                hierarchy = ContractionHierarchy.load(hierarchyFile, compact);
+            } catch (IOException e) {
+                System.out.println("Rebuilding contraction hierarchy: " + e.getMessage());
+            }
+        }
+        if (hierarchy == null) {
+            hierarchy = ContractionHierarchy.build(compact);
+            try {
+                hierarchy.save(hierarchyFile);
+            } catch (IOException e) {
+                System.err.println("Error saving contraction hierarchy: " + e.getMessage());
+            }
+        }
+        graph.setContractionHierarchy(hierarchy);
+        return hierarchy;
+    }
 
-        return graph;
+    /**
+     * The map of the last data built, with a city id (or null) for every cell. Its size gives the
+     * grid dimensions.
+     */
+    public String[][] getCountryMap() {
+        return countryMap;
     }
 
     public Map<String, Station> getBusStationMap() {
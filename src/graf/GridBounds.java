@@ -0,0 +1,106 @@
+package graf;
+
+/**
+ * Admissible A* lower bounds from the city grid.
+ * Cities are named G_x_y and every departure goes to a grid neighbour, so the Manhattan
+ * distance to the destination times the smallest duration (or price) per grid step ever
+ * seen on a departure never overestimates what is left to travel. The per-step minimums
+ * are measured on the loaded graph, so the bounds stay admissible for any timetable.
+ */
+public final class GridBounds {
+    private final int[] x; // grid coordinates by station id
+    private final int[] y;
+    private final double minutesPerStep;
+    private final double pricePerStep;
+    private final boolean parsed; // every city is named G_x_y
+    private final boolean available;
+
+    public GridBounds(CompactGraph graph) {
+        this(graph, null);
+    }
+
+    /**
+     * Measures the bounds of graph, reusing the station coordinates of base when it was made for a
+     * graph with the same stations.
+     */
+    GridBounds(CompactGraph graph, GridBounds base) {
+        int n = graph.getStationCount();
+        boolean parsed = true;
+        if (base != null) {
+            x = base.x;
+            y = base.y;
+            parsed = base.parsed;
+        } else {
+            x = new int[n];
+            y = new int[n];
+            for (int s = 0; s < n && parsed; s++) {
+                int[] coords = parseCity(graph.getStation(s).getCityId());
+                if (coords == null) {
+                    parsed = false;
+                } else {
+                    x[s] = coords[0];
+                    y[s] = coords[1];
+                }
+            }
+        }
+        this.parsed = parsed;
+
+        double minutes = Double.MAX_VALUE;
+        double price = Double.MAX_VALUE;
+        if (parsed) {
+            for (int e = 0; e < graph.getEdgeCount(); e++) {
+                int steps = distance(graph.edgeSource[e], graph.edgeTarget[e]);
+                if (steps == 0 || graph.isTransfer(e)) {
+                    continue;
+                }
+                minutes = Math.min(minutes, (double) graph.edgeDuration[e] / steps);
+                price = Math.min(price, graph.edgePrice[e] / steps);
+            }
+        }
+        available = parsed && minutes != Double.MAX_VALUE;
+        minutesPerStep = available ? Math.max(0, minutes) : 0;
+        pricePerStep = available ? Math.max(0, price) : 0;
+    }
+
+    private static int[] parseCity(String cityId) {
+        // City ID format: G_X_Y
+        String[] parts = cityId.split("_");
+        if (parts.length != 3) {
+            return null;
+        }
+        try {
+            return new int[]{Integer.parseInt(parts[1]), Integer.parseInt(parts[2])};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    public boolean isAvailable() {
+        return available;
+    }
+
+    int distance(int a, int b) {
+        return Math.abs(x[a] - x[b]) + Math.abs(y[a] - y[b]);
+    }
+
+    /**
+     * Returns the number of grid steps from station to the nearest target.
+     */
+    int steps(int station, int[] targets) {
+        int steps = Integer.MAX_VALUE;
+        for (int target : targets) {
+            steps = Math.min(steps, distance(station, target));
+        }
+        return steps == Integer.MAX_VALUE ? 0 : steps;
+    }
+
+    /**
+     * Returns a lower bound on the remaining weight from station to the nearest target.
+     */
+    double lowerBound(int station, int[] targets, RouteFinder.Criterion criterion) {
+        if (!available) {
+            return 0;
+        }
+        return steps(station, targets) * (criterion == RouteFinder.Criterion.TIME ? minutesPerStep : pricePerStep);
+    }
+}
@@ -0,0 +1,136 @@
+package graf;
+
+import java.util.Arrays;
+
+/**
+ * Indexed d-ary min-heap over int node ids 0 .. capacity - 1 with double keys.
+ * Every node is in the heap at most once, so an improvement lowers its key in place
+ * instead of adding another entry, and memory stays bounded by the node count.
+ */
+public class IndexedMinHeap {
+    private static final int ARITY = 4;
+
+    private final int[] heap; // node ids in heap order
+    private final int[] position; // index of each node in heap, -1 when not queued
+    private final double[] keys; // key of each queued node
+    private int size;
+
+    public IndexedMinHeap(int capacity) {
+        heap = new int[capacity];
+        position = new int[capacity];
+        keys = new double[capacity];
+        Arrays.fill(position, -1);
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(int node) {
+        return position[node] >= 0;
+    }
+
+    public double getKey(int node) {
+        return keys[node];
+    }
+
+    /**
+     * Adds the node with the key, or lowers its key if it is already queued with a higher one.
+     * Returns false if the node is queued with a key that is not higher.
+     */
+    public boolean offer(int node, double key) {
+        if (position[node] < 0) {
+            heap[size] = node;
+            position[node] = size;
+            keys[node] = key;
+            siftUp(size++);
+            return true;
+        }
+        if (key >= keys[node]) {
+            return false;
+        }
+        keys[node] = key;
+        siftUp(position[node]);
+        return true;
+    }
+
+    public int peek() {
+        return heap[0];
+    }
+
+    public double peekKey() {
+        return keys[heap[0]];
+    }
+
+    /**
+     * Removes and returns the node with the smallest key.
+     */
+    public int poll() {
+        int top = heap[0];
+        position[top] = -1;
+        size--;
+        if (size > 0) {
+            heap[0] = heap[size];
+            position[heap[0]] = 0;
+            siftDown(0);
+        }
+        return top;
+    }
+
+    /**
+     * Empties the heap in time proportional to the number of queued nodes.
+     */
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            position[heap[i]] = -1;
+        }
+        size = 0;
+    }
+
+    private void siftUp(int index) {
+        int node = heap[index];
+        double key = keys[node];
+        while (index > 0) {
+            int parent = (index - 1) / ARITY;
+            int parentNode = heap[parent];
+            if (keys[parentNode] <= key) {
+                break;
+            }
+            heap[index] = parentNode;
+            position[parentNode] = index;
+            index = parent;
+        }
+        heap[index] = node;
+        position[node] = index;
+    }
+
+    private void siftDown(int index) {
+        int node = heap[index];
+        double key = keys[node];
+        while (true) {
+            int first = index * ARITY + 1;
+            if (first >= size) {
+                break;
+            }
+            int smallest = first;
+            int last = Math.min(first + ARITY, size);
+            for (int child = first + 1; child < last; child++) {
+                if (keys[heap[child]] < keys[heap[smallest]]) {
+                    smallest = child;
+                }
+            }
+            if (keys[heap[smallest]] >= key) {
+                break;
+            }
+            heap[index] = heap[smallest];
+            position[heap[index]] = index;
+            index = smallest;
+        }
+        heap[index] = node;
+        position[node] = index;
+    }
+}
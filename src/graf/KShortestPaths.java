@@ -0,0 +1,159 @@
+package graf;
+
+import stanice.Station;
+import java.util.*;
+
+/**
+ * Yen's k-shortest loopless paths on top of the single-best search.
+ * Paths are distinct as station sequences: when a spur is searched, every departure
+ * between the spur station and the next station of an already accepted path is banned,
+ * so the k results are real alternatives instead of the same trip at different hours.
+ * No path enters a station of the source city after leaving from another one: starting there
+ * is never worse, so such a path would only repeat another with a transfer in front. A path
+ * ends at the first destination station it reaches, so none ends with a transfer inside the
+ * destination city either.
+ */
+public class KShortestPaths {
+    private static final int[] NONE = new int[0];
+
+    private final CompactGraph graph;
+    private final GridBounds bounds;
+    private final RouteFinder.Criterion criterion;
+    private final boolean aStar;
+
+    public KShortestPaths(CompactGraph graph, GridBounds bounds, RouteFinder.Criterion criterion, boolean aStar) {
+        this.graph = graph;
+        this.bounds = bounds;
+        this.criterion = criterion;
+        this.aStar = aStar;
+    }
+
+    /**
+     * Returns up to k loopless paths from any source to any target, best first. If the search
+     * budget runs out, the paths accepted until then are returned.
+     */
+    public List<List<Graph.Connection>> find(Collection<Station> sources, Collection<Station> targets,
+                                             int startMinute, int k) {
+        if (k <= 0) {
+            return Collections.emptyList();
+        }
+        for (Station source : sources) {
+            if (targets.contains(source)) {
+                return Collections.singletonList(Collections.emptyList());
+            }
+        }
+        try (ShortestPathSearch search = new ShortestPathSearch(graph, bounds, criterion, aStar, targets)) {
+            return find(search, sources, startMinute, k);
+        }
+    }
+
+    private List<List<Graph.Connection>> find(ShortestPathSearch search, Collection<Station> sources,
+                                              int startMinute, int k) {
+        SearchBudget budget = SearchBudget.current();
+        int[] sourceIds = graph.indexesOf(sources);
+        boolean[] sourceStations = graph.mask(sources);
+        List<List<ShortestPathSearch.Label>> accepted = new ArrayList<>();
+        Set<List<Integer>> seen = new HashSet<>();
+        List<ShortestPathSearch.Label> candidates = new ArrayList<>(); // sorted by weight
+
+        ShortestPathSearch.Label first = search.findBest(startLabels(sourceIds, Collections.emptySet(), startMinute),
+                sourceStations, -1, NONE, Double.MAX_VALUE);
+        if (first == null) {
+            return Collections.emptyList();
+        }
+        accepted.add(first.chain());
+        seen.add(stationsOf(accepted.get(0)));
+
+        while (accepted.size() < k) {
+            if (!budget.spend(0, candidates.size())) {
+                break;
+            }
+            List<ShortestPathSearch.Label> previous = accepted.get(accepted.size() - 1);
+
+            // Spur from the (virtual) common origin: start at a source no accepted path starts at
+            Set<Integer> usedSources = new HashSet<>();
+            for (List<ShortestPathSearch.Label> path : accepted) {
+                usedSources.add(path.get(0).station);
+            }
+            offer(search, candidates, seen, search.findBest(startLabels(sourceIds, usedSources, startMinute),
+                    sourceStations, -1, NONE, bound(search, candidates, k - accepted.size())));
+
+            boolean[] rootStations = sourceStations.clone();
+            for (int i = 0; i < previous.size() - 1; i++) {
+                ShortestPathSearch.Label spur = previous.get(i);
+                int[] bannedNext = new int[accepted.size()];
+                int banned = 0;
+                for (List<ShortestPathSearch.Label> path : accepted) {
+                    if (path.size() > i + 1 && sameStations(path, previous, i)) {
+                        bannedNext[banned++] = path.get(i + 1).station;
+                    }
+                }
+                offer(search, candidates, seen, search.findBest(Collections.singletonList(spur), rootStations,
+                        spur.station, Arrays.copyOf(bannedNext, banned), bound(search, candidates, k - accepted.size())));
+                rootStations[spur.station] = true;
+            }
+
+            // A spur search cut short by the budget may have missed a better candidate
+            if (candidates.isEmpty() || budget.isExhausted()) {
+                break;
+            }
+            accepted.add(candidates.remove(0).chain());
+        }
+
+        List<List<Graph.Connection>> paths = new ArrayList<>();
+        for (List<ShortestPathSearch.Label> path : accepted) {
+            paths.add(path.get(path.size() - 1).path(graph));
+        }
+        return paths;
+    }
+
+    private static List<ShortestPathSearch.Label> startLabels(int[] sources, Set<Integer> excluded, int startMinute) {
+        List<ShortestPathSearch.Label> labels = new ArrayList<>();
+        for (int source : sources) {
+            if (!excluded.contains(source)) {
+                labels.add(ShortestPathSearch.Label.start(source, startMinute));
+            }
+        }
+        return labels;
+    }
+
+    /**
+     * Once there are enough candidates to fill the result, a spur search only has to beat
+     * the worst of the ones that would be used; this keeps most spur searches short.
+     */
+    private static double bound(ShortestPathSearch search, List<ShortestPathSearch.Label> candidates, int needed) {
+        return candidates.size() < needed ? Double.MAX_VALUE : search.weight(candidates.get(needed - 1));
+    }
+
+    private static void offer(ShortestPathSearch search, List<ShortestPathSearch.Label> candidates,
+                              Set<List<Integer>> seen, ShortestPathSearch.Label candidate) {
+        if (candidate == null || !seen.add(stationsOf(candidate.chain()))) {
+            return;
+        }
+        int position = 0;
+        while (position < candidates.size() && search.weight(candidates.get(position)) <= search.weight(candidate)) {
+            position++;
+        }
+        candidates.add(position, candidate);
+    }
+
+    private static List<Integer> stationsOf(List<ShortestPathSearch.Label> path) {
+        List<Integer> stations = new ArrayList<>(path.size());
+        for (ShortestPathSearch.Label label : path) {
+            stations.add(label.station);
+        }
+        return stations;
+    }
+
+    /**
+     * Checks whether two paths visit the same stations up to and including position last.
+     */
+    private static boolean sameStations(List<ShortestPathSearch.Label> a, List<ShortestPathSearch.Label> b, int last) {
+        for (int i = 0; i <= last; i++) {
+            if (a.get(i).station != b.get(i).station) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,135 @@
+package graf;
+
+import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Best time, cost and number of transfers from one source city to every city of the graph,
+ * as dense arrays indexed by city id (see {@link CompactGraph#getCityId(int)}).
+ * Each criterion comes from its own search, so the three values of a city may belong to
+ * different routes. Routes are only rebuilt when {@link #getRoute} asks for them.
+ */
+public class OneToAllResult {
+    public static final int UNREACHABLE = -1;
+
+    private final CompactGraph graph;
+    private final String sourceCity;
+    private final LocalTime startTime;
+    private final long[] times;
+    private final double[] costs;
+    private final int[] transfers;
+    private final Map<RouteFinder.Criterion, StationTree> trees;
+    private final Map<RouteFinder.Criterion, int[]> bestStations; // station of each city the best route ends at
+
+    OneToAllResult(CompactGraph graph, String sourceCity, LocalTime startTime,
+                   Map<RouteFinder.Criterion, StationTree> trees) {
+        this.graph = graph;
+        this.sourceCity = sourceCity;
+        this.startTime = startTime;
+        this.trees = trees;
+        this.bestStations = new EnumMap<>(RouteFinder.Criterion.class);
+        int cities = graph.getCityCount();
+        times = new long[cities];
+        costs = new double[cities];
+        transfers = new int[cities];
+        int start = CompactGraph.minuteOfDay(startTime);
+
+        for (Map.Entry<RouteFinder.Criterion, StationTree> entry : trees.entrySet()) {
+            StationTree tree = entry.getValue();
+            int[] best = new int[cities];
+            Arrays.fill(best, -1);
+            for (int station = 0; station < graph.getStationCount(); station++) {
+                if (tree.arrival(station) == StationTree.UNREACHED) {
+                    continue;
+                }
+                int city = graph.cityOf(station);
+                int other = best[city];
+                // Ties on the criterion go to the earlier arrival
+                if (other < 0 || tree.value(station) < tree.value(other)
+                        || tree.value(station) == tree.value(other) && tree.arrival(station) < tree.arrival(other)) {
+                    best[city] = station;
+                }
+            }
+            for (int city = 0; city < cities; city++) {
+                int station = best[city];
+                switch (entry.getKey()) {
+                    case TIME:
+                        times[city] = station < 0 ? UNREACHABLE : tree.arrival(station) - start;
+                        break;
+                    case COST:
+                        costs[city] = station < 0 ? UNREACHABLE : tree.value(station);
+                        break;
+                    case TRANSFERS:
+                        transfers[city] = station < 0 ? UNREACHABLE : (int) tree.value(station);
+                        break;
+                }
+            }
+            bestStations.put(entry.getKey(), best);
+        }
+    }
+
+    public String getSourceCity() {
+        return sourceCity;
+    }
+
+    public int getCityCount() {
+        return graph.getCityCount();
+    }
+
+    public String getCityId(int city) {
+        return graph.getCityId(city);
+    }
+
+    /**
+     * Returns the dense id of a city, or -1 if it is not in the graph.
+     */
+    public int indexOf(String cityId) {
+        return graph.cityIndexOf(cityId);
+    }
+
+    /**
+     * Shortest total time in minutes per city, UNREACHABLE where there is no route.
+     */
+    public long[] getTimes() {
+        return times.clone();
+    }
+
+    /**
+     * Lowest total price per city, UNREACHABLE where there is no route.
+     */
+    public double[] getCosts() {
+        return costs.clone();
+    }
+
+    /**
+     * Fewest transfers per city, UNREACHABLE where there is no route.
+     */
+    public int[] getTransfers() {
+        return transfers.clone();
+    }
+
+    public long getTime(int city) {
+        return times[city];
+    }
+
+    public double getCost(int city) {
+        return costs[city];
+    }
+
+    public int getTransfers(int city) {
+        return transfers[city];
+    }
+
+    /**
+     * Rebuilds the best route to a city for the criterion, or returns null if the city is unreachable.
+     */
+    public RouteFinder.Route getRoute(int city, RouteFinder.Criterion criterion) {
+        int station = bestStations.get(criterion)[city];
+        if (station < 0) {
+            return null;
+        }
+        return RouteFinder.buildRoute(trees.get(criterion).path(station), startTime);
+    }
+}
@@ -0,0 +1,196 @@
+package graf;
+
+import stanice.Station;
+import java.util.*;
+
+/**
+ * Label-setting multi-criteria search over (arrival time, cost, transfers).
+ * Every station keeps a bag of labels none of which is better in all three criteria
+ * than another; labels dominated by the bag or by a journey already found at the
+ * destination are dropped. One query returns the full Pareto front.
+ */
+public class ParetoSearch {
+
+    /**
+     * A reached station with all three criteria, linked to the label it was reached from.
+     */
+    private static final class Label {
+        final int station;
+        final int arrival;
+        final int ready; // earliest time a new departure can be boarded here
+        final double cost;
+        final int transfers;
+        final int lastTransportStation;
+        final Label previous;
+        final int edge; // edge that led here, -1 for a start label
+        boolean dominated;
+
+        Label(int station, int arrival, int ready, double cost, int transfers, int lastTransportStation,
+              Label previous, int edge) {
+            this.station = station;
+            this.arrival = arrival;
+            this.ready = ready;
+            this.cost = cost;
+            this.transfers = transfers;
+            this.lastTransportStation = lastTransportStation;
+            this.previous = previous;
+            this.edge = edge;
+        }
+
+        Label follow(CompactGraph graph, int edge) {
+            int time = graph.arrivalAfter(edge, ready);
+            double price = cost + graph.edgePrice[edge];
+            int next = graph.edgeTarget[edge];
+            if (graph.isTransfer(edge)) {
+                return new Label(next, time, time, price, transfers + 1, lastTransportStation, this, edge);
+            }
+            int from = graph.edgeSource[edge];
+            boolean changing = from != lastTransportStation;
+            return new Label(next, time, graph.readyAfter(edge, time), price, transfers + (changing ? 1 : 0),
+                    from, this, edge);
+        }
+
+        /**
+         * Time that matters for dominance: arrival at a destination, boarding readiness elsewhere.
+         */
+        int time(boolean atTarget) {
+            return atTarget ? arrival : ready;
+        }
+
+        List<Graph.Connection> path(CompactGraph graph) {
+            List<Graph.Connection> path = new ArrayList<>();
+            for (Label label = this; label.previous != null; label = label.previous) {
+                path.add(graph.getConnection(label.edge));
+            }
+            Collections.reverse(path);
+            return path;
+        }
+    }
+
+    private final CompactGraph graph;
+    private final GridBounds bounds; // null when the grid bounds are not available
+
+    public ParetoSearch(CompactGraph graph, GridBounds bounds) {
+        this.graph = graph;
+        this.bounds = bounds.isAvailable() ? bounds : null;
+    }
+
+    /**
+     * Returns the Pareto-optimal paths from any source to any target, ordered by arrival time.
+     */
+    public List<List<Graph.Connection>> paretoFront(Collection<Station> sources, Collection<Station> targets,
+                                                    int startMinute) {
+        for (Station source : sources) {
+            if (targets.contains(source)) {
+                return Collections.singletonList(Collections.emptyList());
+            }
+        }
+        int[] targetIds = graph.indexesOf(targets);
+        boolean[] isTarget = graph.mask(targets);
+        List<List<Label>> bags = new ArrayList<>(Collections.nCopies(graph.getStationCount(), null));
+        List<Label> front = new ArrayList<>();
+        // Lexicographic order: a label can never be dominated by one polled after it
+        PriorityQueue<Label> queue = new PriorityQueue<>(Comparator
+                .comparingInt((Label label) -> label.ready)
+                .thenComparingDouble(label -> label.cost)
+                .thenComparingInt(label -> label.transfers));
+
+        for (int source : graph.indexesOf(sources)) {
+            Label start = new Label(source, startMinute, startMinute, 0, 0, source, null, -1);
+            bag(bags, source).add(start);
+            queue.add(start);
+        }
+
+        SearchBudget budget = SearchBudget.current();
+        while (!queue.isEmpty()) {
+            Label current = queue.poll();
+            if (!budget.expand(queue.size())) {
+                break;
+            }
+            if (current.dominated || prunedByFront(current, front, targetIds)) {
+                continue;
+            }
+            for (int e = graph.firstEdge[current.station]; e < graph.firstEdge[current.station + 1]; e++) {
+                Label label = current.follow(graph, e);
+                if (isTarget[label.station]) {
+                    insert(front, label, true);
+                } else if (!prunedByFront(label, front, targetIds)) {
+                    if (insert(bag(bags, label.station), label, false)) {
+                        queue.add(label);
+                    }
+                }
+            }
+        }
+
+        front.sort(Comparator.comparingInt((Label label) -> label.arrival)
+                .thenComparingDouble(label -> label.cost)
+                .thenComparingInt(label -> label.transfers));
+        List<List<Graph.Connection>> paths = new ArrayList<>();
+        for (Label label : front) {
+            paths.add(label.path(graph));
+        }
+        return paths;
+    }
+
+    private static List<Label> bag(List<List<Label>> bags, int station) {
+        List<Label> bag = bags.get(station);
+        if (bag == null) {
+            bag = new ArrayList<>();
+            bags.set(station, bag);
+        }
+        return bag;
+    }
+
+    /**
+     * Adds a label to a bag unless something in the bag is at least as good in every criterion.
+     * Labels the new one dominates are removed and flagged so they are skipped when polled.
+     */
+    private static boolean insert(List<Label> bag, Label label, boolean atTarget) {
+        for (Label other : bag) {
+            if (dominates(other, label, atTarget)) {
+                return false;
+            }
+        }
+        Iterator<Label> iterator = bag.iterator();
+        while (iterator.hasNext()) {
+            Label other = iterator.next();
+            if (dominates(label, other, atTarget)) {
+                other.dominated = true;
+                iterator.remove();
+            }
+        }
+        bag.add(label);
+        return true;
+    }
+
+    private static boolean dominates(Label a, Label b, boolean atTarget) {
+        return a.time(atTarget) <= b.time(atTarget) && a.cost <= b.cost && a.transfers <= b.transfers;
+    }
+
+    /**
+     * Checks whether every extension of the label is dominated by a journey already found,
+     * using the grid lower bounds on what is left to travel when they are available.
+     */
+    private boolean prunedByFront(Label label, List<Label> front, int[] targets) {
+        if (front.isEmpty()) {
+            return false;
+        }
+        // Leaving the station again always happens at ready time or later
+        int arrival = label.ready;
+        double cost = label.cost;
+        int transfers = label.transfers;
+        if (bounds != null) {
+            arrival += (int) bounds.lowerBound(label.station, targets, RouteFinder.Criterion.TIME);
+            cost += bounds.lowerBound(label.station, targets, RouteFinder.Criterion.COST);
+            // Every grid step is one more boarding, and only the first boarding at a source is free
+            int steps = bounds.steps(label.station, targets);
+            transfers += label.previous == null ? Math.max(0, steps - 1) : steps;
+        }
+        for (Label found : front) {
+            if (found.arrival <= arrival && found.cost <= cost && found.transfers <= transfers) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,260 @@
+package graf;
+
+import stanice.Station;
+import java.time.LocalTime;
+import java.util.*;
+
+/**
+ * Round-based (RAPTOR-style) router for the TRANSFERS criterion.
+ * Round k holds the earliest time every station can be left again using at most k legs,
+ * where a leg is one departure or one bus/train transfer inside a city. Each round only
+ * rescans stations improved in the previous one, and every round that reaches the
+ * destination earlier than all rounds before it adds one journey to the Pareto set of
+ * (transfers, arrival time).
+ */
+public class RoundBasedRouter {
+    private static final int UNREACHED = Integer.MAX_VALUE;
+
+    private final CompactGraph graph;
+
+    public RoundBasedRouter(CompactGraph graph) {
+        this.graph = graph;
+    }
+
+    /**
+     * Returns the Pareto-optimal journeys ordered by number of legs: each one arrives
+     * strictly earlier than every journey with fewer legs.
+     */
+    public List<List<Graph.Connection>> paretoJourneys(Collection<Station> sources, Collection<Station> targets,
+                                                       LocalTime startTime, int maxJourneys) {
+        if (maxJourneys <= 0) {
+            return Collections.emptyList();
+        }
+        for (Station source : sources) {
+            if (targets.contains(source)) {
+                return Collections.singletonList(Collections.emptyList());
+            }
+        }
+
+        int n = graph.getStationCount();
+        boolean[] isTarget = graph.mask(targets);
+
+        // labels.get(k)[s]: earliest time s can be left with at most k legs; parents.get(k)[s]: edge used in round k
+        List<int[]> labels = new ArrayList<>();
+        List<int[]> parents = new ArrayList<>();
+        int[] initial = new int[n];
+        Arrays.fill(initial, UNREACHED);
+        int startMinute = CompactGraph.minuteOfDay(startTime);
+        boolean[] marked = new boolean[n];
+        for (int source : graph.indexesOf(sources)) {
+            initial[source] = startMinute;
+            marked[source] = true;
+        }
+        labels.add(initial);
+        parents.add(null);
+
+        List<List<Graph.Connection>> journeys = new ArrayList<>();
+        int bestArrival = UNREACHED;
+        boolean anyMarked = true;
+        SearchBudget budget = SearchBudget.current();
+        int scanned = 0;
+        for (int round = 1; anyMarked && journeys.size() < maxJourneys; round++) {
+            // Journeys of finished rounds stay valid when the budget runs out
+            if (!budget.spend(scanned, 0)) {
+                break;
+            }
+            scanned = 0;
+            int[] previous = labels.get(round - 1);
+            int[] current = previous.clone();
+            int[] parent = new int[n];
+            Arrays.fill(parent, -1);
+            boolean[] nextMarked = new boolean[n];
+            int roundArrival = UNREACHED;
+            int roundEdge = -1;
+            anyMarked = false;
+
+            for (int s = 0; s < n; s++) {
+                if (!marked[s]) {
+                    continue;
+                }
+                scanned++;
+                int time = previous[s];
+                // More legs only pay off if they arrive before every journey found so far
+                for (int g = graph.firstGroup[s]; g < graph.firstGroup[s + 1]; g++) {
+                    int to = graph.groupTarget[g];
+                    int limit = Math.min(bestArrival, isTarget[to] ? roundArrival : current[to]);
+                    int e = graph.bestDeparture(g, time, isTarget[to], limit);
+                    if (e < 0) {
+                        continue;
+                    }
+                    int arrival = graph.arrivalAfter(e, time);
+                    if (isTarget[to]) {
+                        roundArrival = arrival;
+                        roundEdge = e;
+                    } else {
+                        current[to] = graph.readyAfter(e, arrival);
+                        parent[to] = e;
+                        nextMarked[to] = true;
+                        anyMarked = true;
+                    }
+                }
+                for (int t = graph.firstTransfer[s]; t < graph.firstTransfer[s + 1]; t++) {
+                    int e = graph.transferEdge[t];
+                    int arrival = graph.arrivalAfter(e, time);
+                    if (arrival >= bestArrival) {
+                        continue;
+                    }
+                    int to = graph.edgeTarget[e];
+                    if (isTarget[to]) {
+                        if (arrival < roundArrival) {
+                            roundArrival = arrival;
+                            roundEdge = e;
+                        }
+                    } else if (arrival < current[to]) {
+                        current[to] = arrival;
+                        parent[to] = e;
+                        nextMarked[to] = true;
+                        anyMarked = true;
+                    }
+                }
+            }
+
+            labels.add(current);
+            parents.add(parent);
+            marked = nextMarked;
+            if (roundEdge >= 0) {
+                bestArrival = roundArrival;
+                journeys.add(reconstruct(parents, round, roundEdge));
+            }
+        }
+        return journeys;
+    }
+
+    /**
+     * Runs rounds from the sources until no new station is reached and returns, for every station,
+     * the journey with the fewest transfers that arrives earliest among those.
+     */
+    StationTree fewestTransfersToAll(int[] sources, int startMinute) {
+        int n = graph.getStationCount();
+        boolean[] isSource = new boolean[n];
+        int[] firstRound = new int[n]; // round in which the station was first reached, -1 if never
+        int[] arrival = new int[n];
+        int[] arrivalEdge = new int[n];
+        int[] arrivalTransfers = new int[n];
+        Arrays.fill(firstRound, -1);
+        Arrays.fill(arrival, UNREACHED);
+        Arrays.fill(arrivalEdge, -1);
+
+        // Per round only the previous labels are needed; parents are kept to rebuild paths
+        List<int[]> parents = new ArrayList<>();
+        int[] previous = new int[n];
+        int[] previousTransfers = new int[n];
+        Arrays.fill(previous, UNREACHED);
+        boolean[] marked = new boolean[n];
+        for (int source : sources) {
+            isSource[source] = true;
+            firstRound[source] = 0;
+            arrival[source] = startMinute;
+            previous[source] = startMinute;
+            marked[source] = true;
+        }
+        parents.add(null);
+
+        boolean reachedNew = true;
+        SearchBudget budget = SearchBudget.current();
+        for (int round = 1; reachedNew && budget.check(); round++) {
+            int[] current = previous.clone();
+            int[] currentTransfers = previousTransfers.clone();
+            int[] parent = new int[n];
+            Arrays.fill(parent, -1);
+            boolean[] nextMarked = new boolean[n];
+            reachedNew = false;
+
+            for (int s = 0; s < n; s++) {
+                if (!marked[s]) {
+                    continue;
+                }
+                int time = previous[s];
+                int transfers = previousTransfers[s] + (isSource[s] ? 0 : 1);
+                for (int g = graph.firstGroup[s]; g < graph.firstGroup[s + 1]; g++) {
+                    int to = graph.groupTarget[g];
+                    if (firstRound[to] < 0 || firstRound[to] == round) {
+                        int e = graph.bestDeparture(g, time, true, arrival[to]);
+                        if (e >= 0) {
+                            reachedNew |= firstRound[to] < 0;
+                            firstRound[to] = round;
+                            arrival[to] = graph.arrivalAfter(e, time);
+                            arrivalEdge[to] = e;
+                            arrivalTransfers[to] = transfers;
+                        }
+                    }
+                    int e = graph.bestDeparture(g, time, false, current[to]);
+                    if (e >= 0) {
+                        current[to] = graph.readyAfter(e, graph.arrivalAfter(e, time));
+                        currentTransfers[to] = transfers;
+                        parent[to] = e;
+                        nextMarked[to] = true;
+                    }
+                }
+                for (int t = graph.firstTransfer[s]; t < graph.firstTransfer[s + 1]; t++) {
+                    int e = graph.transferEdge[t];
+                    int to = graph.edgeTarget[e];
+                    int arrives = graph.arrivalAfter(e, time);
+                    if ((firstRound[to] < 0 || firstRound[to] == round) && arrives < arrival[to]) {
+                        reachedNew |= firstRound[to] < 0;
+                        firstRound[to] = round;
+                        arrival[to] = arrives;
+                        arrivalEdge[to] = e;
+                        arrivalTransfers[to] = previousTransfers[s] + 1;
+                    }
+                    if (arrives < current[to]) {
+                        current[to] = arrives;
+                        currentTransfers[to] = previousTransfers[s] + 1;
+                        parent[to] = e;
+                        nextMarked[to] = true;
+                    }
+                }
+            }
+
+            parents.add(parent);
+            previous = current;
+            previousTransfers = currentTransfers;
+            marked = nextMarked;
+        }
+
+        return new StationTree() {
+            @Override
+            public int arrival(int station) {
+                return arrival[station];
+            }
+
+            @Override
+            public double value(int station) {
+                return arrivalTransfers[station];
+            }
+
+            @Override
+            public List<Graph.Connection> path(int station) {
+                if (firstRound[station] <= 0) {
+                    return new ArrayList<>();
+                }
+                return reconstruct(parents, firstRound[station], arrivalEdge[station]);
+            }
+        };
+    }
+
+    private List<Graph.Connection> reconstruct(List<int[]> parents, int round, int lastEdge) {
+        List<Graph.Connection> path = new ArrayList<>();
+        path.add(graph.getConnection(lastEdge));
+        int station = graph.edgeSource[lastEdge];
+        for (int k = round - 1; k > 0; k--) {
+            int edge = parents.get(k)[station];
+            if (edge >= 0) {
+                path.add(graph.getConnection(edge));
+                station = graph.edgeSource[edge];
+            }
+        }
+        Collections.reverse(path);
+        return path;
+    }
+}
@@ -0,0 +1,148 @@
+package graf;
+
+import java.time.LocalTime;
+import java.util.*;
+
+/**
+ * Bounded cache of top-N route results in front of a {@link RouteFinder}.
+ * Entries are keyed by (source city, destination city, criterion, start-time bucket, N) and
+ * evicted least recently used first once the total weight, the number of connections held by
+ * all cached routes, goes over the limit. Results belong to one graph version: the first lookup
+ * against a different or edited graph drops the whole cache.
+ * Searches run at the start of their time bucket, so a bucket of one minute gives exact results
+ * and wider buckets trade exactness for more hits.
+ */
+public class RouteCache {
+
+    private static final class Key {
+        final String sourceCity;
+        final String destinationCity;
+        final RouteFinder.Criterion criterion;
+        final int bucket;
+        final int maxRoutes;
+
+        Key(String sourceCity, String destinationCity, RouteFinder.Criterion criterion, int bucket, int maxRoutes) {
+            this.sourceCity = sourceCity;
+            this.destinationCity = destinationCity;
+            this.criterion = criterion;
+            this.bucket = bucket;
+            this.maxRoutes = maxRoutes;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return bucket == key.bucket && maxRoutes == key.maxRoutes && criterion == key.criterion
+                    && sourceCity.equals(key.sourceCity) && destinationCity.equals(key.destinationCity);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(sourceCity, destinationCity, criterion, bucket, maxRoutes);
+        }
+    }
+
+    private final RouteFinder routeFinder;
+    private final long maxWeight;
+    private final int bucketMinutes;
+    private final LinkedHashMap<Key, List<RouteFinder.Route>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long graphVersion;
+    private long weight;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public RouteCache(RouteFinder routeFinder, long maxWeight, int bucketMinutes) {
+        if (maxWeight <= 0 || bucketMinutes <= 0) {
+            throw new IllegalArgumentException("Cache weight and time bucket must be positive");
+        }
+        this.routeFinder = routeFinder;
+        this.maxWeight = maxWeight;
+        this.bucketMinutes = bucketMinutes;
+    }
+
+    /**
+     * Returns the cached routes for the query, searching with the route finder on a miss.
+     */
+    public List<RouteFinder.Route> findTopRoutes(Graph graph, String sourceCity, String destinationCity,
+                                                 RouteFinder.Criterion criterion, LocalTime startTime, int maxRoutes) {
+        int bucket = CompactGraph.minuteOfDay(startTime) / bucketMinutes;
+        Key key = new Key(sourceCity, destinationCity, criterion, bucket, maxRoutes);
+        long version = graph.getVersion();
+        synchronized (this) {
+            if (version != graphVersion) {
+                clear();
+                graphVersion = version;
+            }
+            List<RouteFinder.Route> routes = entries.get(key);
+            if (routes != null) {
+                hits++;
+                return routes;
+            }
+            misses++;
+        }
+
+        // Search outside the lock so other lookups are not held up
+        LocalTime bucketStart = LocalTime.of(0, 0).plusMinutes((long) bucket * bucketMinutes);
+        List<RouteFinder.Route> routes = Collections.unmodifiableList(new ArrayList<>(
+                routeFinder.findTopRoutes(graph, sourceCity, destinationCity, criterion, bucketStart, maxRoutes)));
+        synchronized (this) {
+            if (version == graphVersion && !entries.containsKey(key)) {
+                entries.put(key, routes);
+                weight += weightOf(routes);
+                evict();
+            }
+        }
+        return routes;
+    }
+
+    private static long weightOf(List<RouteFinder.Route> routes) {
+        long weight = 1; // an empty result still takes an entry
+        for (RouteFinder.Route route : routes) {
+            weight += route.getConnections().size();
+        }
+        return weight;
+    }
+
+    private void evict() {
+        Iterator<List<RouteFinder.Route>> iterator = entries.values().iterator();
+        while (weight > maxWeight && iterator.hasNext()) {
+            weight -= weightOf(iterator.next());
+            iterator.remove();
+            evictions++;
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("RouteCache[%d entries, weight %d/%d, %d hits, %d misses, %d evictions]",
+                entries.size(), weight, maxWeight, hits, misses, evictions);
+    }
+}
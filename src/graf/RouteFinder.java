@@ -4,6 +4,8 @@ import stanice.Station;
 import odlasci.Departures;
 import java.time.LocalTime;
 import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * Finds optimal routes in the transportation graph based on different criteria.
@@ -11,6 +13,8 @@ import java.util.*;
 public class RouteFinder {
     public enum Criterion { TIME, COST, TRANSFERS }
 
+    private boolean aStar = true;
+
     /**
      * Represents a route with its connections and metrics.
      */
@@ -70,231 +74,314 @@ public class RouteFinder {
     }
 
     /**
-     * State class for Dijkstra's algorithm to track multiple paths.
+     * One city-to-city route request for {@link #findAll}.
      */
-    private static class State implements Comparable<State> {
-        Station station;
-        double weight;
-        LocalTime currentTime;
-        int transfers;
-        List<Graph.Connection> path;
-        List<Double> waitingTimes;
-        Station lastTransportStation; // Last station where we boarded a transport
-
-
-        State(Station station, double weight, LocalTime currentTime, int transfers,
-              List<Graph.Connection> path, List<Double> waitingTimes, Station lastTransportStation) {
-            this.station = station;
-            this.weight = weight;
-            this.currentTime = currentTime;
-            this.transfers = transfers;
-            this.path = path;
-            this.waitingTimes = waitingTimes;
-            this.lastTransportStation = lastTransportStation;
+    public static class Query {
+        private final String sourceCity;
+        private final String destinationCity;
+        private final Criterion criterion;
+        private final LocalTime startTime;
+        private final int maxRoutes;
+
+        public Query(String sourceCity, String destinationCity, Criterion criterion, LocalTime startTime, int maxRoutes) {
+            this.sourceCity = sourceCity;
+            this.destinationCity = destinationCity;
+            this.criterion = criterion;
+            this.startTime = startTime;
+            this.maxRoutes = maxRoutes;
         }
 
-        @Override
-        public int compareTo(State other) {
-            return Double.compare(this.weight, other.weight);
-        }
+        public String getSourceCity() { return sourceCity; }
+        public String getDestinationCity() { return destinationCity; }
+        public Criterion getCriterion() { return criterion; }
+        public LocalTime getStartTime() { return startTime; }
+        public int getMaxRoutes() { return maxRoutes; }
     }
 
     /**
-     * Finds the top N optimal routes based on the specified criterion.
+     * Enables or disables A* guidance by grid lower bounds for the Dijkstra-based TIME and COST
+     * searches (top-N routes and COST queries). A single TIME route always comes from the
+     * connection scan, and a single COST route from the contraction hierarchy when the graph has
+     * one. A* is on by default and has no effect on graphs whose cities are not laid out as G_x_y.
      */
-    public List<Route> findTopRoutes(Graph graph, Station source, Station destination, Criterion criterion, LocalTime startTime, int maxRoutes) {
-        if (criterion == Criterion.TRANSFERS) {
-            return findTopRoutesBFS(graph, source, destination, maxRoutes);
-        } else {
-            return findTopRoutesDijkstra(graph, source, destination, criterion, startTime, maxRoutes);
-        }
+    public void setAStar(boolean aStar) {
+        this.aStar = aStar;
     }
 
-    private List<Route> findTopRoutesDijkstra(Graph graph, Station source, Station destination, Criterion criterion, LocalTime startTime, int maxRoutes) {
-        PriorityQueue<State> queue = new PriorityQueue<>();
-        Map<Station, List<State>> bestStates = new HashMap<>();
-        List<Route> topRoutes = new ArrayList<>();
-
-        queue.add(new State(source, 0.0, startTime, 0, new ArrayList<>(), new ArrayList<>(), source));
-        bestStates.computeIfAbsent(source, k -> new ArrayList<>()).add(
-                new State(source, 0.0, startTime, 0, new ArrayList<>(), new ArrayList<>(), source));
-
-        while (!queue.isEmpty()) {
-            State current = queue.poll();
-            Station currentStation = current.station;
-            LocalTime currentTime = current.currentTime;
-            int currentTransfers = current.transfers;
-            List<Graph.Connection> currentPath = current.path;
-            List<Double> currentWaitingTimes = current.waitingTimes;
-            Station lastTransportStation = current.lastTransportStation;
-
-            if (currentStation.equals(destination)) {
-                double totalCost = currentPath.stream().mapToDouble(Graph.Connection::getCost).sum();
-                long totalTravelTime = currentPath.stream().mapToLong(Graph.Connection::getTravelTime).sum();
-                long totalWaitingTime = currentWaitingTimes.stream().mapToLong(Double::longValue).sum();
-                long totalTime = totalTravelTime + totalWaitingTime;
-                topRoutes.add(new Route(currentPath, totalCost, Math.max(totalTime, 0), currentTransfers, currentWaitingTimes));
-                if (topRoutes.size() >= maxRoutes) {
-                    break;
-                }
-                continue;
+    /**
+     * Answers a batch of queries in parallel on the common ForkJoinPool and returns the routes
+     * in query order. Queries run against a frozen snapshot of the graph and reuse the search
+     * arrays pooled by its compact graph, so the cost per query stays close to the single-query
+     * cost.
+     */
+    public List<List<Route>> findAll(Graph graph, List<Query> queries) {
+        Graph snapshot = graph.snapshot();
+        return queries.parallelStream()
+                .map(query -> findTopRoutes(snapshot, query.getSourceCity(), query.getDestinationCity(),
+                        query.getCriterion(), query.getStartTime(), query.getMaxRoutes()))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Finds the earliest-arrival journeys between two cities for every start time of the day
+     * with one profile scan. Returns an empty profile if either city is unknown or unreachable.
+     */
+    public DepartureProfile findProfile(Graph graph, String sourceCity, String destinationCity) {
+        List<Station> sources = graph.getCityStations(sourceCity);
+        List<Station> destinations = graph.getCityStations(destinationCity);
+        CompactGraph compact = graph.getCompactGraph();
+        List<ConnectionScan.Journey> journeys = new ArrayList<>();
+        if (!sources.isEmpty() && !destinations.isEmpty() && !sourceCity.equals(destinationCity)) {
+            // Any start during the day arrives no later than the midnight start does one day later
+            List<List<Graph.Connection>> first = graph.getConnectionScan().earliestArrivals(
+                    sources, destinations, LocalTime.MIDNIGHT, 1);
+            if (!first.isEmpty()) {
+                int horizon = (int) buildRoute(first.get(0), LocalTime.MIDNIGHT).getTotalTime() + CompactGraph.MINUTES_PER_DAY;
+                journeys = graph.getConnectionScan().profile(compact.indexesOf(sources), compact.mask(destinations), horizon);
             }
+        }
+        return new DepartureProfile(sourceCity, destinationCity, compact, journeys);
+    }
 
-            for (Graph.Connection conn : graph.getConnections(currentStation)) {
-                if (conn.getTravelTime() <= 0 && !conn.isTransfer()) {
-                    continue;
-                }
+    /**
+     * Finds the best time, cost and transfers from a city to every city of the graph with one
+     * search per criterion instead of one query per destination.
+     */
+    public OneToAllResult findOneToAll(Graph graph, String sourceCity, LocalTime startTime) {
+        List<Station> sources = graph.getCityStations(sourceCity);
+        if (sources.isEmpty()) {
+            throw new IllegalArgumentException("Unknown city: " + sourceCity);
+        }
+        CompactGraph compact = graph.getCompactGraph();
+        int[] sourceIds = compact.indexesOf(sources);
+        int start = CompactGraph.minuteOfDay(startTime);
 
-                Station nextStation = conn.getDestination();
-                double waitingTime = calculateWaitingTime(conn, currentTime);
-                double newWeight;
-
-                // Determine if this is a transfer
-                boolean isTransfer = false;
-                Station newLastTransportStation = lastTransportStation;
-
-                if (conn.isTransfer()) {
-                    // This is a transfer between bus and train in the same city
-                    isTransfer = true;
-                } else {
-                    // Check if we're changing transport (different departure)
-                    if (!conn.getSource().equals(lastTransportStation)) {
-                        isTransfer = true;
-                        newLastTransportStation = conn.getSource();
-                    }
-                }
+        List<ShortestPathSearch.Label> starts = new ArrayList<>();
+        for (int source : sourceIds) {
+            starts.add(ShortestPathSearch.Label.start(source, start));
+        }
+        Map<Criterion, StationTree> trees = new EnumMap<>(Criterion.class);
+        trees.put(Criterion.TIME, graph.getConnectionScan().earliestArrivalsToAll(sourceIds, start));
+        try (ShortestPathSearch costSearch = new ShortestPathSearch(compact, graph.getGridBounds(), Criterion.COST,
+                false, Collections.emptyList())) {
+            trees.put(Criterion.COST, costSearch.settleAll(starts));
+        }
+        trees.put(Criterion.TRANSFERS, graph.getRoundBasedRouter().fewestTransfersToAll(sourceIds, start));
+        return new OneToAllResult(compact, sourceCity, startTime, trees);
+    }
 
-                int newTransfers = currentTransfers + (isTransfer ? 1 : 0);
-
-                switch (criterion) {
-                    case TIME:
-                        newWeight = current.weight + conn.getTravelTime() + waitingTime;
-                        break;
-                    case COST:
-                        newWeight = current.weight + conn.getCost();
-                        break;
-                    default:
-                        throw new IllegalArgumentException("Unsupported criterion for Dijkstra");
-                }
+    /**
+     * Computes the time, cost and transfers matrix between all cities, running the one-to-all
+     * searches of different source cities in parallel on the common ForkJoinPool.
+     */
+    public RouteMatrix findAllPairs(Graph graph, LocalTime startTime) {
+        Graph snapshot = graph.snapshot();
+        CompactGraph compact = snapshot.getCompactGraph();
+        int cities = compact.getCityCount();
+        long[][] times = new long[cities][];
+        double[][] costs = new double[cities][];
+        int[][] transfers = new int[cities][];
+        IntStream.range(0, cities).parallel().forEach(city -> {
+            OneToAllResult result = findOneToAll(snapshot, compact.getCityId(city), startTime);
+            times[city] = result.getTimes();
+            costs[city] = result.getCosts();
+            transfers[city] = result.getTransfers();
+        });
+        return new RouteMatrix(compact, times, costs, transfers);
+    }
 
-                List<State> stationStates = bestStates.computeIfAbsent(nextStation, k -> new ArrayList<>());
-                if (stationStates.size() >= maxRoutes) {
-                    State worstState = stationStates.stream().max(Comparator.comparingDouble(s -> s.weight)).orElse(null);
-                    if (worstState != null && newWeight >= worstState.weight) {
-                        continue;
-                    }
-                    stationStates.remove(worstState);
-                }
+    /**
+     * Finds the top N optimal routes based on the specified criterion.
+     */
+    public List<Route> findTopRoutes(Graph graph, Station source, Station destination, Criterion criterion, LocalTime startTime, int maxRoutes) {
+        return findTopRoutes(graph, Collections.singletonList(source), Collections.singletonList(destination),
+                criterion, startTime, maxRoutes);
+    }
 
-                List<Graph.Connection> newPath = new ArrayList<>(currentPath);
-                newPath.add(conn);
-                List<Double> newWaitingTimes = new ArrayList<>(currentWaitingTimes);
-                newWaitingTimes.add(waitingTime);
-                LocalTime nextTime = conn.isTransfer() ? currentTime.plusMinutes((long) waitingTime)
-                        : conn.getDeparture().getArrivalTime();
-                State newState = new State(nextStation, newWeight, nextTime, newTransfers, newPath, newWaitingTimes, newLastTransportStation);
-                stationStates.add(newState);
-                queue.add(newState);
-            }
+    /**
+     * Finds the top N optimal routes between two cities in one search: both stations of the
+     * source city are seeded together and the search stops at either station of the destination city.
+     */
+    public List<Route> findTopRoutes(Graph graph, String sourceCity, String destinationCity, Criterion criterion, LocalTime startTime, int maxRoutes) {
+        List<Station> sources = graph.getCityStations(sourceCity);
+        List<Station> destinations = graph.getCityStations(destinationCity);
+        if (sources.isEmpty() || destinations.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return findTopRoutes(graph, sources, destinations, criterion, startTime, maxRoutes);
+    }
+
+    /**
+     * Like {@link #findTopRoutes(Graph, String, String, Criterion, LocalTime, int)}, but the search
+     * stops once one of the limits is reached and returns the routes found until then together
+     * with the limit that stopped it.
+     */
+    public SearchResult findTopRoutes(Graph graph, String sourceCity, String destinationCity, Criterion criterion,
+                                      LocalTime startTime, int maxRoutes, SearchLimits limits) {
+        SearchBudget budget = SearchBudget.start(limits);
+        try {
+            List<Route> routes = findTopRoutes(graph, sourceCity, destinationCity, criterion, startTime, maxRoutes);
+            return new SearchResult(routes, budget.getStatus(), budget.getStates());
+        } finally {
+            SearchBudget.end();
         }
+    }
 
-        return topRoutes;
+    private List<Route> findTopRoutes(Graph graph, Collection<Station> sources, Collection<Station> destinations,
+                                      Criterion criterion, LocalTime startTime, int maxRoutes) {
+        if (criterion == Criterion.TRANSFERS) {
+            return findFewestTransfers(graph, sources, destinations, startTime, maxRoutes);
+        } else if (criterion == Criterion.TIME && maxRoutes == 1) {
+            return findEarliestArrivals(graph, sources, destinations, startTime);
+        } else if (criterion == Criterion.COST && maxRoutes == 1 && graph.getContractionHierarchy() != null) {
+            return findCheapest(graph.getContractionHierarchy(), sources, destinations, startTime);
+        } else {
+            return findKShortest(graph, sources, destinations, criterion, startTime, maxRoutes);
+        }
     }
 
-    private List<Route> findTopRoutesBFS(Graph graph, Station source, Station destination, int maxRoutes) {
-        Queue<State> queue = new LinkedList<>();
-        Map<Station, List<State>> bestStates = new HashMap<>();
-        List<Route> topRoutes = new ArrayList<>();
-
-        queue.add(new State(source, 0, LocalTime.of(0, 0), 0, new ArrayList<>(), new ArrayList<>(), source));
-        bestStates.computeIfAbsent(source, k -> new ArrayList<>()).add(
-                new State(source, 0, LocalTime.of(0, 0), 0, new ArrayList<>(), new ArrayList<>(), source));
-
-        while (!queue.isEmpty()) {
-            State current = queue.poll();
-            Station currentStation = current.station;
-            int currentTransfers = current.transfers;
-            List<Graph.Connection> currentPath = current.path;
-            List<Double> currentWaitingTimes = current.waitingTimes;
-            Station lastTransportStation = current.lastTransportStation;
-
-            if (currentStation.equals(destination)) {
-                double totalCost = currentPath.stream().mapToDouble(Graph.Connection::getCost).sum();
-                long totalTravelTime = currentPath.stream().mapToLong(Graph.Connection::getTravelTime).sum();
-                long totalWaitingTime = currentWaitingTimes.stream().mapToLong(Double::longValue).sum();
-                long totalTime = totalTravelTime + totalWaitingTime;
-                topRoutes.add(new Route(currentPath, totalCost, Math.max(totalTime, 0), currentTransfers, currentWaitingTimes));
-                if (topRoutes.size() >= maxRoutes) {
-                    break;
-                }
-                continue;
-            }
+    /**
+     * Finds every Pareto-optimal route between two cities in one search: no returned route is
+     * beaten by another in arrival time, cost and transfers at once. Callers can sort the
+     * front with {@link #comparator(Criterion)} instead of running one search per criterion.
+     */
+    public List<Route> findParetoRoutes(Graph graph, String sourceCity, String destinationCity, LocalTime startTime) {
+        List<Station> sources = graph.getCityStations(sourceCity);
+        List<Station> destinations = graph.getCityStations(destinationCity);
+        List<Route> routes = new ArrayList<>();
+        if (sources.isEmpty() || destinations.isEmpty()) {
+            return routes;
+        }
+        ParetoSearch search = new ParetoSearch(graph.getCompactGraph(), graph.getGridBounds());
+        for (List<Graph.Connection> path : search.paretoFront(sources, destinations,
+                CompactGraph.minuteOfDay(startTime))) {
+            routes.add(buildRoute(path, startTime));
+        }
+        return routes;
+    }
 
-            for (Graph.Connection conn : graph.getConnections(currentStation)) {
-                Station nextStation = conn.getDestination();
-
-                // Determine if this is a transfer
-                boolean isTransfer = false;
-                Station newLastTransportStation = lastTransportStation;
-
-                if (conn.isTransfer()) {
-                    // This is a transfer between bus and train in the same city
-                    isTransfer = true;
-                } else {
-                    // Check if we're changing transport (different departure)
-                    if (!conn.getSource().equals(lastTransportStation)) {
-                        isTransfer = true;
-                        newLastTransportStation = conn.getSource();
-                    }
-                }
+    /**
+     * Orders routes by the given criterion, breaking ties with the other two.
+     */
+    public static Comparator<Route> comparator(Criterion criterion) {
+        return switch (criterion) {
+            case TIME -> Comparator.comparingLong(Route::getTotalTime)
+                    .thenComparingDouble(Route::getTotalCost)
+                    .thenComparingInt(Route::getTransfers);
+            case COST -> Comparator.comparingDouble(Route::getTotalCost)
+                    .thenComparingLong(Route::getTotalTime)
+                    .thenComparingInt(Route::getTransfers);
+            case TRANSFERS -> Comparator.comparingInt(Route::getTransfers)
+                    .thenComparingDouble(Route::getTotalCost)
+                    .thenComparingLong(Route::getTotalTime);
+        };
+    }
 
-                int newTransfers = currentTransfers + (isTransfer ? 1 : 0);
+    /**
+     * Answers single-route TIME queries with one connection scan.
+     */
+    private List<Route> findEarliestArrivals(Graph graph, Collection<Station> sources, Collection<Station> destinations,
+                                             LocalTime startTime) {
+        List<Route> routes = new ArrayList<>();
+        for (List<Graph.Connection> path : graph.getConnectionScan().earliestArrivals(
+                sources, destinations, startTime, 1)) {
+            routes.add(buildRoute(path, startTime));
+        }
+        return routes;
+    }
 
-                List<State> stationStates = bestStates.computeIfAbsent(nextStation, k -> new ArrayList<>());
-                if (stationStates.size() >= maxRoutes) {
-                    State worstState = stationStates.stream().max(Comparator.comparingInt(s -> s.transfers)).orElse(null);
-                    if (worstState != null && newTransfers >= worstState.transfers) {
-                        continue;
-                    }
-                    stationStates.remove(worstState);
-                }
+    /**
+     * Answers single-route COST queries with a bidirectional search on the contraction hierarchy.
+     */
+    private List<Route> findCheapest(ContractionHierarchy hierarchy, Collection<Station> sources,
+                                     Collection<Station> destinations, LocalTime startTime) {
+        List<Graph.Connection> path = hierarchy.cheapestPath(sources, destinations);
+        if (path == null) {
+            return Collections.emptyList();
+        }
+        return Collections.singletonList(buildRoute(path, startTime));
+    }
 
-                List<Graph.Connection> newPath = new ArrayList<>(currentPath);
-                newPath.add(conn);
-                List<Double> newWaitingTimes = new ArrayList<>(currentWaitingTimes);
-                newWaitingTimes.add((double) conn.getTravelTime());
-                State newState = new State(nextStation, newTransfers, LocalTime.of(0, 0), newTransfers, newPath, newWaitingTimes, newLastTransportStation);
-                stationStates.add(newState);
-                queue.add(newState);
-            }
+    /**
+     * Answers TRANSFERS queries with the round-based router. The result is the Pareto set
+     * of (transfers, arrival time), fewest transfers first; every route can be ridden from startTime.
+     */
+    private List<Route> findFewestTransfers(Graph graph, Collection<Station> sources, Collection<Station> destinations,
+                                            LocalTime startTime, int maxRoutes) {
+        List<Route> routes = new ArrayList<>();
+        for (List<Graph.Connection> path : graph.getRoundBasedRouter().paretoJourneys(
+                sources, destinations, startTime, maxRoutes)) {
+            Route route = buildRoute(path, startTime);
+            // A transfer inside the first city can make a later round count as many transfers as an earlier one
+            routes.removeIf(r -> r.getTransfers() >= route.getTransfers());
+            routes.add(route);
         }
+        return routes;
+    }
 
-        return topRoutes;
+    /**
+     * Answers top-N TIME and COST queries with Yen's k-shortest loopless paths,
+     * so the routes differ in the stations they pass through.
+     */
+    private List<Route> findKShortest(Graph graph, Collection<Station> sources, Collection<Station> destinations,
+                                      Criterion criterion, LocalTime startTime, int maxRoutes) {
+        List<Route> routes = new ArrayList<>();
+        KShortestPaths search = new KShortestPaths(graph.getCompactGraph(), graph.getGridBounds(), criterion, aStar);
+        for (List<Graph.Connection> path : search.find(sources, destinations,
+                CompactGraph.minuteOfDay(startTime), maxRoutes)) {
+            routes.add(buildRoute(path, startTime));
+        }
+        return routes;
     }
 
-    private double calculateWaitingTime(Graph.Connection conn, LocalTime currentTime) {
-        if (conn.isTransfer()) {
-            long transferTime = conn.getTravelTime();
-            if (transferTime <= 0) {
-                System.out.println("Invalid transfer time: " + transferTime + " for connection from " +
-                        conn.getSource().getId() + " to " + conn.getDestination().getId());
-                return 10;
+    /**
+     * Rides a path from startTime, waiting for the next daily occurrence of every departure
+     * and respecting the minimum transfer time after each arrival.
+     */
+    static Route buildRoute(List<Graph.Connection> path, LocalTime startTime) {
+        int start = CompactGraph.minuteOfDay(startTime);
+        long clock = start;
+        long pendingTransferTime = 0;
+        double totalCost = 0;
+        List<Double> waitingTimes = new ArrayList<>(path.size());
+        for (Graph.Connection conn : path) {
+            totalCost += conn.getCost();
+            long waitingTime;
+            if (conn.isTransfer()) {
+                waitingTime = pendingTransferTime + conn.getTravelTime();
+                clock += waitingTime;
+                pendingTransferTime = 0;
+            } else {
+                Departures dep = conn.getDeparture();
+                long departure = CompactGraph.minuteOfDay(dep.getDepartureTime());
+                long ready = clock + pendingTransferTime;
+                waitingTime = pendingTransferTime + Math.floorMod(departure - ready, CompactGraph.MINUTES_PER_DAY);
+                clock += waitingTime + conn.getTravelTime();
+                pendingTransferTime = Math.max(0, dep.getMinWaitingTime());
             }
-            return transferTime;
+            waitingTimes.add((double) waitingTime);
         }
-        Departures dep = conn.getDeparture();
-        LocalTime depTime = dep.getDepartureTime();
-        long waiting = java.time.Duration.between(currentTime, depTime).toMinutes();
-        if (waiting < 0) {
-            waiting += 24 * 60;
+        return new Route(path, totalCost, clock - start, countTransfers(path), waitingTimes);
+    }
+
+    /**
+     * Counts transfers the same way the searches do: every bus/train change inside a city
+     * and every boarding at a station other than the one we last boarded at.
+     */
+    static int countTransfers(List<Graph.Connection> path) {
+        if (path.isEmpty()) {
+            return 0;
         }
-        long minWaitingTime = dep.getMinWaitingTime();
-        if (minWaitingTime <= 0) {
-            System.out.println("Invalid minWaitingTime: " + minWaitingTime + " for departure from " +
-                    dep.getSource().getId() + " to " + dep.getDestination().getId());
-            minWaitingTime = 5;
+        int transfers = 0;
+        Station lastTransportStation = path.get(0).getSource();
+        for (Graph.Connection conn : path) {
+            if (conn.isTransfer()) {
+                transfers++;
+            } else if (!conn.getSource().equals(lastTransportStation)) {
+                transfers++;
+                lastTransportStation = conn.getSource();
+            }
         }
-        return waiting + minWaitingTime;
+        return transfers;
     }
-
-}
\ No newline at end of file
+}
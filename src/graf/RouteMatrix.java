@@ -0,0 +1,68 @@
+package graf;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Best time, cost and number of transfers between every pair of cities, indexed by city id
+ * (see {@link CompactGraph#getCityId(int)}). Unreachable pairs hold {@link OneToAllResult#UNREACHABLE}.
+ */
+public class RouteMatrix {
+    private final CompactGraph graph;
+    private final long[][] times;
+    private final double[][] costs;
+    private final int[][] transfers;
+
+    RouteMatrix(CompactGraph graph, long[][] times, double[][] costs, int[][] transfers) {
+        this.graph = graph;
+        this.times = times;
+        this.costs = costs;
+        this.transfers = transfers;
+    }
+
+    public int getCityCount() {
+        return graph.getCityCount();
+    }
+
+    public String getCityId(int city) {
+        return graph.getCityId(city);
+    }
+
+    /**
+     * Returns the dense id of a city, or -1 if it is not in the graph.
+     */
+    public int indexOf(String cityId) {
+        return graph.cityIndexOf(cityId);
+    }
+
+    public long getTime(int from, int to) {
+        return times[from][to];
+    }
+
+    public double getCost(int from, int to) {
+        return costs[from][to];
+    }
+
+    public int getTransfers(int from, int to) {
+        return transfers[from][to];
+    }
+
+    /**
+     * Writes one line per city pair: from,to,time,cost,transfers.
+     */
+    public void writeCsv(String filePath) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(filePath))) {
+            writer.write("from,to,time,cost,transfers");
+            writer.newLine();
+            for (int from = 0; from < times.length; from++) {
+                for (int to = 0; to < times.length; to++) {
+                    writer.write(getCityId(from) + "," + getCityId(to) + "," + times[from][to] + ","
+                            + costs[from][to] + "," + transfers[from][to]);
+                    writer.newLine();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package graf;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Work counter of the route search running on the current thread. Searches report every
+ * expanded state and stop, keeping what they have found, as soon as a call returns false.
+ * Outside {@link RouteFinder#findTopRoutes(Graph, String, String, RouteFinder.Criterion,
+ * java.time.LocalTime, int, SearchLimits)} a thread's budget has no limits. Either way an
+ * interrupted thread gets a CancellationException, so a cancelled UI search stops instead
+ * of finishing for nobody.
+ */
+final class SearchBudget {
+    private static final ThreadLocal<SearchBudget> CURRENT =
+            ThreadLocal.withInitial(() -> new SearchBudget(SearchLimits.NONE));
+
+    private final long maxStates;
+    private final int maxQueueSize;
+    private final long deadline; // System.nanoTime() value, only if timed
+    private final boolean timed;
+    private long states;
+    private SearchResult.Status status = SearchResult.Status.COMPLETE;
+
+    private SearchBudget(SearchLimits limits) {
+        maxStates = limits.getMaxStates() > 0 ? limits.getMaxStates() : Long.MAX_VALUE;
+        maxQueueSize = limits.getMaxQueueSize() > 0 ? limits.getMaxQueueSize() : Integer.MAX_VALUE;
+        timed = limits.getTimeoutMillis() > 0;
+        deadline = System.nanoTime() + limits.getTimeoutMillis() * 1_000_000;
+    }
+
+    static SearchBudget current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Gives the current thread a fresh budget for one query; {@link #end()} takes it away again.
+     */
+    static SearchBudget start(SearchLimits limits) {
+        SearchBudget budget = new SearchBudget(limits);
+        CURRENT.set(budget);
+        return budget;
+    }
+
+    static void end() {
+        CURRENT.remove();
+    }
+
+    /**
+     * Counts one expanded state; queueSize is the size of the search's queue after taking it.
+     */
+    boolean expand(int queueSize) {
+        return spend(1, queueSize);
+    }
+
+    /**
+     * Checks the deadline without counting any work, for searches that are not state by state.
+     */
+    boolean check() {
+        return spend(0, 0);
+    }
+
+    /**
+     * Counts work done since the last call and returns false once a limit is reached. The clock
+     * is read at most once per 1024 states, so counting stays cheap in the innermost loops.
+     */
+    boolean spend(long count, int queueSize) {
+        if (status != SearchResult.Status.COMPLETE) {
+            return false;
+        }
+        long before = states;
+        states += count;
+        if (states > maxStates) {
+            return stop(SearchResult.Status.STATE_LIMIT);
+        }
+        if (queueSize > maxQueueSize) {
+            return stop(SearchResult.Status.QUEUE_LIMIT);
+        }
+        if (count == 0 || (before >>> 10) != (states >>> 10)) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new CancellationException("Route search cancelled");
+            }
+            if (timed && System.nanoTime() - deadline > 0) {
+                return stop(SearchResult.Status.DEADLINE);
+            }
+        }
+        return true;
+    }
+
+    boolean isExhausted() {
+        return status != SearchResult.Status.COMPLETE;
+    }
+
+    SearchResult.Status getStatus() {
+        return status;
+    }
+
+    long getStates() {
+        return states;
+    }
+
+    private boolean stop(SearchResult.Status reason) {
+        status = reason;
+        return false;
+    }
+}
@@ -0,0 +1,26 @@
+package graf;
+
+/**
+ * Per-query limits for a route search: how many states it may expand, how large its queue
+ * may grow and how long it may run. A limit of 0 means no limit.
+ */
+public class SearchLimits {
+    public static final SearchLimits NONE = new SearchLimits(0, 0, 0);
+
+    private final long maxStates;
+    private final int maxQueueSize;
+    private final long timeoutMillis;
+
+    public SearchLimits(long maxStates, int maxQueueSize, long timeoutMillis) {
+        if (maxStates < 0 || maxQueueSize < 0 || timeoutMillis < 0) {
+            throw new IllegalArgumentException("Search limits cannot be negative");
+        }
+        this.maxStates = maxStates;
+        this.maxQueueSize = maxQueueSize;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public long getMaxStates() { return maxStates; }
+    public int getMaxQueueSize() { return maxQueueSize; }
+    public long getTimeoutMillis() { return timeoutMillis; }
+}
@@ -0,0 +1,31 @@
+package graf;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Routes found by a search run under {@link SearchLimits}, and whether it ran to the end.
+ * When a limit stopped it, the routes are the ones found until then; for top-N queries they
+ * are still the best routes in order, only fewer of them.
+ */
+public class SearchResult {
+    public enum Status { COMPLETE, STATE_LIMIT, QUEUE_LIMIT, DEADLINE }
+
+    private final List<RouteFinder.Route> routes;
+    private final Status status;
+    private final long statesExpanded;
+
+    SearchResult(List<RouteFinder.Route> routes, Status status, long statesExpanded) {
+        this.routes = Collections.unmodifiableList(routes);
+        this.status = status;
+        this.statesExpanded = statesExpanded;
+    }
+
+    public List<RouteFinder.Route> getRoutes() { return routes; }
+    public Status getStatus() { return status; }
+    public long getStatesExpanded() { return statesExpanded; }
+
+    public boolean isComplete() {
+        return status == Status.COMPLETE;
+    }
+}
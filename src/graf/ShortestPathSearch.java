@@ -0,0 +1,272 @@
+package graf;
+
+import stanice.Station;
+import java.util.*;
+
+/**
+ * Single-best Dijkstra search for the TIME and COST criteria, optionally guided by
+ * grid lower bounds (A*). The search can start from labels in the middle of an existing
+ * path and can skip banned stations and hops out of a spur station, which is what Yen's
+ * algorithm needs. A search is made for one set of targets and is used by one thread at a
+ * time. Its per-station arrays are borrowed from the compact graph and handed back by
+ * {@link #close()}, so the next search on that graph reuses them.
+ */
+public class ShortestPathSearch implements AutoCloseable {
+
+    /**
+     * A reached station, linked to the label it was reached from.
+     * Times are minutes since midnight of the query day and may run past 24h.
+     */
+    static final class Label {
+        final int station;
+        final int arrival; // when we got to the station
+        final int ready; // earliest time a new departure can be boarded here
+        final double cost;
+        final Label previous; // null for a start label
+        final int edge; // edge that led here, -1 for a start label
+
+        Label(int station, int arrival, int ready, double cost, Label previous, int edge) {
+            this.station = station;
+            this.arrival = arrival;
+            this.ready = ready;
+            this.cost = cost;
+            this.previous = previous;
+            this.edge = edge;
+        }
+
+        static Label start(int station, int minute) {
+            return new Label(station, minute, minute, 0, null, -1);
+        }
+
+        Label follow(CompactGraph graph, int edge) {
+            int time = graph.arrivalAfter(edge, ready);
+            return new Label(graph.edgeTarget[edge], time, graph.readyAfter(edge, time),
+                    cost + graph.edgePrice[edge], this, edge);
+        }
+
+        /**
+         * Returns the labels from the start label up to this one.
+         */
+        List<Label> chain() {
+            List<Label> chain = new ArrayList<>();
+            for (Label label = this; label != null; label = label.previous) {
+                chain.add(label);
+            }
+            Collections.reverse(chain);
+            return chain;
+        }
+
+        List<Graph.Connection> path(CompactGraph graph) {
+            List<Graph.Connection> path = new ArrayList<>();
+            for (Label label = this; label.previous != null; label = label.previous) {
+                path.add(graph.getConnection(label.edge));
+            }
+            Collections.reverse(path);
+            return path;
+        }
+    }
+
+    private final CompactGraph graph;
+    private final RouteFinder.Criterion criterion;
+    private final GridBounds bounds; // null for plain Dijkstra
+    private final int[] targets;
+    private final boolean[] isTarget;
+
+    /**
+     * Per-station arrays for one search at a time, pooled by the compact graph they were made
+     * for, so a query does not allocate and clear arrays the size of the graph.
+     */
+    static final class Scratch {
+        final IndexedMinHeap queue; // station ids by key plus the A* lower bound
+        // labels[s] and bestKey[s] are valid only while visited[s] == run
+        final Label[] labels;
+        final double[] bestKey;
+        final int[] visited;
+        // lowerBounds[s] is valid only while boundsOf[s] == search
+        final double[] lowerBounds;
+        final int[] boundsOf;
+        int run;
+        int search;
+
+        Scratch(int n) {
+            queue = new IndexedMinHeap(n);
+            labels = new Label[n];
+            bestKey = new double[n];
+            visited = new int[n];
+            lowerBounds = new double[n];
+            boundsOf = new int[n];
+        }
+    }
+
+    private final Scratch scratch;
+    private final int search; // id of this search within the scratch
+
+    public ShortestPathSearch(CompactGraph graph, GridBounds bounds, RouteFinder.Criterion criterion, boolean aStar,
+                              Collection<Station> targets) {
+        if (criterion == RouteFinder.Criterion.TRANSFERS) {
+            throw new IllegalArgumentException("Unsupported criterion for Dijkstra");
+        }
+        this.graph = graph;
+        this.criterion = criterion;
+        this.bounds = aStar && bounds.isAvailable() ? bounds : null;
+        this.targets = graph.indexesOf(targets);
+        this.isTarget = graph.mask(targets);
+        this.scratch = graph.borrowScratch();
+        this.search = ++scratch.search;
+    }
+
+    /**
+     * Hands the per-station arrays back to the graph. Labels already returned stay valid.
+     */
+    @Override
+    public void close() {
+        graph.returnScratch(scratch);
+    }
+
+    /**
+     * Weight of a label that ends a path: arrival time for TIME, total price for COST.
+     */
+    double weight(Label label) {
+        return criterion == RouteFinder.Criterion.TIME ? label.arrival : label.cost;
+    }
+
+    /**
+     * Weight used to order labels that may be extended further.
+     */
+    private double key(Label label) {
+        if (criterion == RouteFinder.Criterion.TIME && !isTarget[label.station]) {
+            return label.ready;
+        }
+        return weight(label);
+    }
+
+    /**
+     * Returns the best label at any target reachable from the start labels, or null if there is
+     * none with a weight below the bound or the search budget ran out first. Banned stations (may be null) are never entered, and
+     * the spur station may not continue to any station in bannedNext.
+     */
+    Label findBest(Collection<Label> starts, boolean[] bannedStations, int spurStation, int[] bannedNext,
+                   double bound) {
+        int run = ++scratch.run;
+        IndexedMinHeap queue = scratch.queue;
+        queue.clear();
+        for (Label start : starts) {
+            offer(start);
+        }
+
+        SearchBudget budget = SearchBudget.current();
+        while (!queue.isEmpty()) {
+            if (queue.peekKey() >= bound) {
+                return null;
+            }
+            int station = queue.poll();
+            if (!budget.expand(queue.size())) {
+                return null;
+            }
+            Label current = scratch.labels[station];
+            if (isTarget[station]) {
+                return current;
+            }
+            if (criterion == RouteFinder.Criterion.TIME) {
+                // Only the best departure to each neighbour can improve it
+                for (int g = graph.firstGroup[station]; g < graph.firstGroup[station + 1]; g++) {
+                    int next = graph.groupTarget[g];
+                    if (!banned(next, station, spurStation, bannedStations, bannedNext)) {
+                        int limit = scratch.visited[next] == run ? (int) scratch.bestKey[next] : Integer.MAX_VALUE;
+                        int e = graph.bestDeparture(g, current.ready, isTarget[next], limit);
+                        if (e >= 0) {
+                            offer(current.follow(graph, e));
+                        }
+                    }
+                }
+                for (int t = graph.firstTransfer[station]; t < graph.firstTransfer[station + 1]; t++) {
+                    int e = graph.transferEdge[t];
+                    if (!banned(graph.edgeTarget[e], station, spurStation, bannedStations, bannedNext)) {
+                        offer(current.follow(graph, e));
+                    }
+                }
+            } else {
+                for (int e = graph.firstEdge[station]; e < graph.firstEdge[station + 1]; e++) {
+                    int next = graph.edgeTarget[e];
+                    // Skip building a label that cannot be cheaper than the one already there
+                    if (scratch.visited[next] == run && current.cost + graph.edgePrice[e] >= scratch.bestKey[next]
+                            || banned(next, station, spurStation, bannedStations, bannedNext)) {
+                        continue;
+                    }
+                    offer(current.follow(graph, e));
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Runs the search from the start labels without stopping at a target and returns the best
+     * label of every station, for one-to-all queries. Meant for a search without targets.
+     */
+    StationTree settleAll(Collection<Label> starts) {
+        findBest(starts, null, -1, new int[0], Double.MAX_VALUE);
+        Label[] best = new Label[graph.getStationCount()];
+        for (int station = 0; station < best.length; station++) {
+            if (scratch.visited[station] == scratch.run) {
+                best[station] = scratch.labels[station];
+            }
+        }
+        return new StationTree() {
+            @Override
+            public int arrival(int station) {
+                return best[station] == null ? UNREACHED : best[station].arrival;
+            }
+
+            @Override
+            public double value(int station) {
+                return weight(best[station]);
+            }
+
+            @Override
+            public List<Graph.Connection> path(int station) {
+                return best[station].path(graph);
+            }
+        };
+    }
+
+    /**
+     * Queues the label if it is the best one seen for its station in this run.
+     */
+    private void offer(Label label) {
+        int station = label.station;
+        double key = key(label);
+        if (scratch.visited[station] == scratch.run && key >= scratch.bestKey[station]) {
+            return;
+        }
+        scratch.visited[station] = scratch.run;
+        scratch.bestKey[station] = key;
+        scratch.labels[station] = label;
+        scratch.queue.offer(station, key + lowerBound(station));
+    }
+
+    private static boolean banned(int next, int station, int spurStation, boolean[] bannedStations,
+                                  int[] bannedNext) {
+        return bannedStations != null && bannedStations[next] || station == spurStation && contains(bannedNext, next);
+    }
+
+    private static boolean contains(int[] values, int value) {
+        for (int v : values) {
+            if (v == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private double lowerBound(int station) {
+        if (bounds == null) {
+            return 0;
+        }
+        if (scratch.boundsOf[station] != search) {
+            scratch.boundsOf[station] = search;
+            scratch.lowerBounds[station] = bounds.lowerBound(station, targets, criterion);
+        }
+        return scratch.lowerBounds[station];
+    }
+}
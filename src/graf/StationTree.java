@@ -0,0 +1,24 @@
+package graf;
+
+import java.util.List;
+
+/**
+ * Result of a one-to-all search: the best journey from the sources to every station of a
+ * compact graph for one criterion. Journeys are only turned into connections when asked for.
+ */
+interface StationTree {
+    int UNREACHED = Integer.MAX_VALUE;
+
+    /**
+     * Returns the arrival minute of the best journey to the station, or UNREACHED.
+     */
+    int arrival(int station);
+
+    /**
+     * Returns the value the search minimized for the station: arrival for TIME, price for COST,
+     * transfers for TRANSFERS. Only meaningful for reached stations.
+     */
+    double value(int station);
+
+    List<Graph.Connection> path(int station);
+}
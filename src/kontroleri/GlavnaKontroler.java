@@ -1,9 +1,14 @@
 package kontroleri;
 
+import graf.CompactGraph;
+import graf.DepartureProfile;
 import graf.Graph;
 import graf.GraphBuilder;
+import graf.RouteCache;
 import graf.RouteFinder;
+import javafx.application.Platform;
 import javafx.beans.value.ChangeListener;
+import javafx.concurrent.Task;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Scene;
@@ -13,16 +18,26 @@ import javafx.scene.control.*;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.paint.Color;
 import javafx.stage.Stage;
+import javafx.stage.WindowEvent;
 import kontroleri.TopRuteKontroler;
 import podaci.TransportDataParser;
+import podaci.TransportDataWatcher;
 import racun.ReceiptManager;
 import stanice.Station;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.LocalDate;
 import java.time.LocalTime;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 import javafx.scene.image.Image;
 
 public class GlavnaKontroler {
@@ -35,48 +50,47 @@ public class GlavnaKontroler {
     @FXML private Button findRoutesButton;
     @FXML private Button buyTicketButton;
     @FXML private Button showTopRoutesButton;
+    @FXML private Button showDeparturesButton;
     @FXML private Label pathLabel;
     @FXML private Label timeLabel;
     @FXML private Label priceLabel;
     @FXML private Label transfersLabel;
     @FXML private Canvas graphCanvas;
-
-    private Graph graph;
-    private GraphBuilder graphBuilder;
-    private RouteFinder routeFinder;
-    private TransportDataParser.TransportData transportData;
+    @FXML private ProgressIndicator searchProgress;
+
+    private static final RouteFinder ROUTE_FINDER = new RouteFinder();
+
+    // Searches run here so the FX thread keeps drawing while they do
+    private static final ExecutorService SEARCH_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "route-search");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final String DATA_FILE = "transport_data.json";
+    private static final String DELTA_FILE = "transport_delta.json";
+
+    // Replaced as a whole by a reload; a query keeps the graph it started with
+    private volatile Graph graph;
+    private volatile GraphBuilder graphBuilder;
+    // Belongs to this window's graph; a graph built from new data invalidates it on the next lookup
+    private final RouteCache routeCache = new RouteCache(ROUTE_FINDER, 100_000, 1);
+    private Map<String, int[]> cityCoords = new HashMap<>(); // [row, col] on the map, only touched on the FX thread
+    private TransportDataWatcher watcher; // only touched on the FX thread, closed with the window
     private RouteFinder.Route optimalRoute;
+    private Task<?> currentSearch; // only touched on the FX thread
 
     @FXML
     private void initialize() {
         try {
-            // Load transport data and build graph
+            // Load transport data and build graph; the builder keeps the map, so the file is read once
+            long start = System.nanoTime();
             graphBuilder = new GraphBuilder();
-            graph = graphBuilder.buildFromJson("transport_data.json");
-            transportData = TransportDataParser.readTransportData("transport_data.json");
-            routeFinder = new RouteFinder();
+            graph = graphBuilder.buildFromJson(DATA_FILE);
+            System.out.printf("Loaded transport data in %d ms%n", (System.nanoTime() - start) / 1_000_000);
 
             // Populate combo boxes with city names in grid order
-            if (transportData != null && transportData.countryMap != null) {
-                List<String> cities = new ArrayList<>(graphBuilder.getBusStationMap().keySet());
-                cities.sort(new Comparator<String>() {
-                    @Override
-                    public int compare(String city1, String city2) {
-                        int[] coords1 = parseCityCoords(city1);
-                        int[] coords2 = parseCityCoords(city2);
-                        int rowDiff = coords1[0] - coords2[0]; // Compare rows first
-                        if (rowDiff != 0) return rowDiff;
-                        return coords1[1] - coords2[1]; // If rows are equal, compare columns
-                    }
-                });
-                startPointComboBox.getItems().addAll(cities);
-                destinationComboBox.getItems().addAll(cities);
-                // Set initial selection to G_0_0
-
-
-            } else {
-                System.err.println("Transport data or countryMap is null");
-            }
+            populateCities();
 
             // Set up radio buttons
             ToggleGroup criterionGroup = new ToggleGroup();
@@ -88,8 +102,14 @@ public class GlavnaKontroler {
             // Set up button actions
             findRoutesButton.setOnAction(event -> findOptimalRoute());
             showTopRoutesButton.setOnAction(event -> showTopRoutes());
+            showDeparturesButton.setOnAction(event -> showDepartures());
             buyTicketButton.setOnAction(event -> buyTicket());
 
+            // A search for the old selection is no longer wanted
+            startPointComboBox.valueProperty().addListener((obs, oldValue, newValue) -> cancelSearch());
+            destinationComboBox.valueProperty().addListener((obs, oldValue, newValue) -> cancelSearch());
+            criterionGroup.selectedToggleProperty().addListener((obs, oldValue, newValue) -> cancelSearch());
+
             // Wait for the Canvas to be added to a Scene
             graphCanvas.sceneProperty().addListener((obs, oldScene, newScene) -> {
                 if (newScene != null) {
@@ -104,26 +124,119 @@ public class GlavnaKontroler {
 
                     // Draw initial graph
                     drawGraph();
+
+                    // Stop watching the data files once the window is closed
+                    newScene.windowProperty().addListener((windowObs, oldWindow, window) -> {
+                        if (window != null) {
+                            window.addEventHandler(WindowEvent.WINDOW_HIDDEN, event -> stopWatching());
+                        }
+                    });
                 }
             });
 
+            // Pick up a regenerated data file or a delta file without restarting the window
+            watcher = new TransportDataWatcher(Paths.get("").toAbsolutePath(),
+                    Set.of(Paths.get(DATA_FILE), Paths.get(DELTA_FILE)), this::reload);
+
         } catch (IOException e) {
             showAlert("Error", "Failed to load transport data: " + e.getMessage());
         }
     }
 
+    private void stopWatching() {
+        if (watcher != null) {
+            try {
+                watcher.close();
+            } catch (IOException e) {
+                System.err.println("Error closing the data file watcher: " + e.getMessage());
+            }
+            watcher = null;
+        }
+    }
+
+    /**
+     * Lists the cities in grid order by walking the map read with the graph, and indexes the
+     * position of every city for drawing.
+     */
+    private void populateCities() {
+        String[][] countryMap = graphBuilder.getCountryMap();
+        Map<String, Station> busStations = graphBuilder.getBusStationMap();
+        Map<String, int[]> coords = new HashMap<>();
+        List<String> cities = new ArrayList<>();
+        for (int row = 0; row < countryMap.length; row++) {
+            for (int col = 0; col < countryMap[row].length; col++) {
+                String city = countryMap[row][col];
+                if (city != null && busStations.containsKey(city) && coords.putIfAbsent(city, new int[]{row, col}) == null) {
+                    cities.add(city);
+                }
+            }
+        }
+        cityCoords = coords;
+        startPointComboBox.getItems().setAll(cities);
+        destinationComboBox.getItems().setAll(cities);
+    }
+
+    /**
+     * Runs on the watcher thread. A delta file, or a data file that only changes departures, is
+     * applied to a copy of the current graph; anything else rebuilds the graph from the data file.
+     * A data file is compared with the current graph itself, so no copy of the old data is kept.
+     * Either way a reload still reads or copies the whole network, so its cost grows with the
+     * network and not with the size of the change; it saves building a new graph and sorting its
+     * indexes from scratch.
+     * The new graph replaces the current one before the next file is handled, so changes build on
+     * each other; searches already running finish on the old graph, and the window is refreshed on
+     * the FX thread.
+     */
+    private void reload(Path file) {
+        long start = System.nanoTime();
+        try {
+            GraphBuilder builder = graphBuilder;
+            Graph updated;
+            boolean stationsChanged = false;
+            if (file.getFileName().toString().equals(DELTA_FILE)) {
+                TransportDataParser.TransportDelta delta = TransportDataParser.readDelta(file.toString());
+                updated = builder.applyDelta(graph, delta);
+                System.out.println("Applied " + delta.size() + " timetable changes from " + DELTA_FILE);
+            } else {
+                TransportDataParser.TransportDelta delta = builder.diff(graph, file.toString());
+                if (delta == null) {
+                    builder = new GraphBuilder();
+                    updated = builder.buildFromJson(file.toString());
+                    stationsChanged = true;
+                } else {
+                    updated = builder.applyDelta(graph, delta);
+                    System.out.println("Applied " + delta.size() + " timetable changes from " + DATA_FILE);
+                }
+            }
+            System.out.printf("Reloaded transport data in %d ms%n", (System.nanoTime() - start) / 1_000_000);
+
+            graphBuilder = builder;
+            graph = updated;
+            boolean refreshCities = stationsChanged;
+            Platform.runLater(() -> {
+                if (refreshCities) {
+                    populateCities();
+                }
+                drawGraph();
+            });
+        } catch (IOException e) {
+            System.err.println("Error reloading transport data from " + file + ": " + e.getMessage());
+        }
+    }
+
     private void drawGraph() {
         GraphicsContext gc = graphCanvas.getGraphicsContext2D();
         gc.clearRect(0, 0, graphCanvas.getWidth(), graphCanvas.getHeight());
 
-        if (transportData == null || transportData.countryMap == null || graph == null) {
-            System.err.println("Transport data, countryMap, or graph is null, cannot draw graph");
+        if (graphBuilder == null || graphBuilder.getCountryMap().length == 0 || graph == null) {
+            System.err.println("Transport data, countryMap, or graph is missing, cannot draw graph");
             return;
         }
 
         // Calculate canvas size based on network dimensions and window size
-        int rows = transportData.countryMap.length;
-        int cols = transportData.countryMap[0].length;
+        String[][] countryMap = graphBuilder.getCountryMap();
+        int rows = countryMap.length;
+        int cols = countryMap[0].length;
         double margin = 20; // Margin for the graph
         double availableWidth = graphCanvas.getWidth() - 2 * margin;
         double availableHeight = graphCanvas.getHeight() - 2 * margin;
@@ -141,22 +254,23 @@ public class GlavnaKontroler {
             System.out.println("Station: " + station.getCityId() + " at coords [" + coords[0] + ", " + coords[1] + "]");
         }
 
-        // Draw edges first
+        // Draw edges first, straight from the compact graph so a redraw builds no Connection per edge
         gc.setStroke(Color.BLACK);
         gc.setLineWidth(1);
-        int edgeCount = 0;
-        for (Station station : graph.getStations()) {
-            int[] coords = parseCityCoords(station.getCityId());
+        CompactGraph compact = graph.getCompactGraph();
+        int[][] stationCoords = new int[compact.getStationCount()][];
+        for (int s = 0; s < stationCoords.length; s++) {
+            stationCoords[s] = parseCityCoords(compact.getStation(s).getCityId());
+        }
+        int edgeCount = compact.getEdgeCount();
+        for (int e = 0; e < edgeCount; e++) {
+            int[] coords = stationCoords[compact.getEdgeSource(e)];
+            int[] destCoords = stationCoords[compact.getEdgeTarget(e)];
             double x1 = margin + coords[1] * nodeSpacing; // X increases rightward
             double y1 = margin + coords[0] * nodeSpacing; // Y increases downward
-
-            for (Graph.Connection conn : graph.getConnections(station)) {
-                int[] destCoords = parseCityCoords(conn.getDestination().getCityId());
-                double x2 = margin + destCoords[1] * nodeSpacing;
-                double y2 = margin + destCoords[0] * nodeSpacing;
-                gc.strokeLine(x1, y1, x2, y2);
-                edgeCount++;
-            }
+            double x2 = margin + destCoords[1] * nodeSpacing;
+            double y2 = margin + destCoords[0] * nodeSpacing;
+            gc.strokeLine(x1, y1, x2, y2);
         }
         System.out.println("Drawn " + edgeCount + " edges");
 
@@ -189,6 +303,10 @@ public class GlavnaKontroler {
     }
 
     private int[] parseCityCoords(String cityId) {
+        int[] coords = cityCoords.get(cityId);
+        if (coords != null) {
+            return coords;
+        }
         // City ID format: G_X_Y
         String[] parts = cityId.split("_");
         return new int[]{Integer.parseInt(parts[1]), Integer.parseInt(parts[2])}; // [row, col]
@@ -205,18 +323,58 @@ public class GlavnaKontroler {
         RouteFinder.Criterion criterion = timeRadioButton.isSelected() ? RouteFinder.Criterion.TIME :
                 priceRadioButton.isSelected() ? RouteFinder.Criterion.COST : RouteFinder.Criterion.TRANSFERS;
 
-        Station[] sourceStations = {graphBuilder.getBusStationMap().get(startCity), graphBuilder.getTrainStationMap().get(startCity)};
-        Station[] destStations = {graphBuilder.getBusStationMap().get(destCity), graphBuilder.getTrainStationMap().get(destCity)};
+        Graph searchGraph = graph;
+        runSearch(() -> routeCache.findTopRoutes(searchGraph, startCity, destCity, criterion, LocalTime.of(8, 0), 1), routes -> {
+            System.out.println(routeCache);
+            if (routes.isEmpty()) {
+                showAlert("No Routes", "No routes found between " + startCity + " and " + destCity);
+                return;
+            }
 
-        List<RouteFinder.Route> routes = findAllRoutes(sourceStations, destStations, criterion, LocalTime.of(8, 0), 1);
-        if (routes.isEmpty()) {
-            showAlert("No Routes", "No routes found between " + startCity + " and " + destCity);
-            return;
+            optimalRoute = routes.get(0);
+            updateRouteDisplay(optimalRoute);
+            drawGraph();
+        });
+    }
+
+    /**
+     * Runs a search on a background thread and hands its result to onResult on the FX thread.
+     * Starting another search, or changing the selection, cancels the one still running: the
+     * task's thread is interrupted and the route finder stops.
+     */
+    private <T> void runSearch(Callable<T> search, Consumer<T> onResult) {
+        cancelSearch();
+        Task<T> task = new Task<T>() {
+            @Override
+            protected T call() throws Exception {
+                return search.call();
+            }
+        };
+        task.setOnSucceeded(event -> {
+            finishSearch(task);
+            onResult.accept(task.getValue());
+        });
+        task.setOnFailed(event -> {
+            finishSearch(task);
+            showAlert("Error", "Route search failed: " + task.getException().getMessage());
+        });
+        task.setOnCancelled(event -> finishSearch(task));
+        currentSearch = task;
+        searchProgress.setVisible(true);
+        SEARCH_EXECUTOR.execute(task);
+    }
+
+    private void cancelSearch() {
+        if (currentSearch != null) {
+            currentSearch.cancel(true);
         }
+    }
 
-        optimalRoute = routes.get(0);
-        updateRouteDisplay(optimalRoute);
-        drawGraph();
+    private void finishSearch(Task<?> task) {
+        if (currentSearch == task) {
+            currentSearch = null;
+            searchProgress.setVisible(false);
+        }
     }
 
     private String getDetailedPathNoCost(RouteFinder.Route route) {
@@ -259,21 +417,24 @@ public class GlavnaKontroler {
     }
 
     private void showTopRoutes() {
-        try {
-            String startCity = startPointComboBox.getValue();
-            String destCity = destinationComboBox.getValue();
-            if (startCity == null || destCity == null) {
-                showAlert("Error", "Please select both start and destination cities.");
-                return;
-            }
+        String startCity = startPointComboBox.getValue();
+        String destCity = destinationComboBox.getValue();
+        if (startCity == null || destCity == null) {
+            showAlert("Error", "Please select both start and destination cities.");
+            return;
+        }
 
-            RouteFinder.Criterion criterion = timeRadioButton.isSelected() ? RouteFinder.Criterion.TIME :
-                    priceRadioButton.isSelected() ? RouteFinder.Criterion.COST : RouteFinder.Criterion.TRANSFERS;
+        RouteFinder.Criterion criterion = timeRadioButton.isSelected() ? RouteFinder.Criterion.TIME :
+                priceRadioButton.isSelected() ? RouteFinder.Criterion.COST : RouteFinder.Criterion.TRANSFERS;
 
-            Station[] sourceStations = {graphBuilder.getBusStationMap().get(startCity), graphBuilder.getTrainStationMap().get(startCity)};
-            Station[] destStations = {graphBuilder.getBusStationMap().get(destCity), graphBuilder.getTrainStationMap().get(destCity)};
+        Graph searchGraph = graph;
+        runSearch(() -> routeCache.findTopRoutes(searchGraph, startCity, destCity, criterion, LocalTime.of(8, 0), 5),
+                routes -> openTopRoutes(routes, criterion));
+    }
 
-            List<RouteFinder.Route> routes = findAllRoutes(sourceStations, destStations, criterion, LocalTime.of(8, 0), 5);
+    private void openTopRoutes(List<RouteFinder.Route> routes, RouteFinder.Criterion criterion) {
+        try {
+            System.out.println(routeCache);
 
             System.out.println("Attempting to load TopRute.fxml from: " + getClass().getResource("/resursi/TopRute.fxml"));
             FXMLLoader loader = new FXMLLoader(getClass().getResource("/resursi/TopRute.fxml"));
@@ -293,7 +454,43 @@ public class GlavnaKontroler {
 
         } catch (IOException e) {
             showAlert("Error", "Failed to load TopRute.fxml or initialize controller: " + e.getMessage());
-            System.err.println("IOException in showTopRoutes: " + e.getMessage());
+            System.err.println("IOException in openTopRoutes: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private void showDepartures() {
+        String startCity = startPointComboBox.getValue();
+        String destCity = destinationComboBox.getValue();
+        if (startCity == null || destCity == null) {
+            showAlert("Error", "Please select both start and destination cities.");
+            return;
+        }
+
+        // One profile search covers every start time of the day
+        Graph searchGraph = graph;
+        runSearch(() -> ROUTE_FINDER.findProfile(searchGraph, startCity, destCity), this::openDepartures);
+    }
+
+    private void openDepartures(DepartureProfile profile) {
+        try {
+            FXMLLoader loader = new FXMLLoader(getClass().getResource("/resursi/Polasci.fxml"));
+            BorderPane root = loader.load();
+            PolasciKontroler controller = loader.getController();
+            if (controller == null) {
+                throw new IOException("Failed to initialize PolasciKontroler from Polasci.fxml.");
+            }
+            controller.setProfile(profile);
+
+            Stage stage = new Stage();
+            stage.setScene(new Scene(root));
+            stage.setTitle("Polasci tokom dana");
+            stage.setResizable(true);
+            stage.show();
+
+        } catch (IOException e) {
+            showAlert("Error", "Failed to load Polasci.fxml or initialize controller: " + e.getMessage());
+            System.err.println("IOException in openDepartures: " + e.getMessage());
             e.printStackTrace();
         }
     }
@@ -340,28 +537,6 @@ public class GlavnaKontroler {
         showAlert("Uspješno", "Karta je kupljena, a račun je sačuvan u folderu 'racuni'.");
     }
 
-    private List<RouteFinder.Route> findAllRoutes(Station[] sourceStations, Station[] destStations,
-                                                  RouteFinder.Criterion criterion, LocalTime startTime, int maxRoutes) {
-        List<RouteFinder.Route> allRoutes = new ArrayList<>();
-        for (Station source : sourceStations) {
-            for (Station dest : destStations) {
-                allRoutes.addAll(routeFinder.findTopRoutes(graph, source, dest, criterion, startTime, maxRoutes));
-            }
-        }
-        allRoutes.sort(switch (criterion) {
-            case TIME -> Comparator.comparingLong(RouteFinder.Route::getTotalTime)
-                    .thenComparingDouble(RouteFinder.Route::getTotalCost)
-                    .thenComparingInt(RouteFinder.Route::getTransfers);
-            case COST -> Comparator.comparingDouble(RouteFinder.Route::getTotalCost)
-                    .thenComparingLong(RouteFinder.Route::getTotalTime)
-                    .thenComparingInt(RouteFinder.Route::getTransfers);
-            case TRANSFERS -> Comparator.comparingInt(RouteFinder.Route::getTransfers)
-                    .thenComparingDouble(RouteFinder.Route::getTotalCost)
-                    .thenComparingLong(RouteFinder.Route::getTotalTime);
-        });
-        return allRoutes.subList(0, Math.min(maxRoutes, allRoutes.size()));
-    }
-
     private void showAlert(String title, String message) {
         Alert alert = new Alert(Alert.AlertType.INFORMATION);
         alert.setTitle(title);
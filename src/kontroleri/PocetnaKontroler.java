@@ -55,8 +55,7 @@ public class PocetnaKontroler {
 
             System.out.println("Generating transport data...");
             TransportDataGenerator generator = new TransportDataGenerator(rows, cols);
-            TransportDataGenerator.TransportData data = generator.generateData();
-            generator.saveToJson(data, "transport_data.json");
+            generator.writeJson("transport_data.json");
             System.out.println("Transport data saved to transport_data.json");
 
             System.out.println("Glavna.fxml resource: " + getClass().getResource("/resursi/Glavna.fxml"));
@@ -0,0 +1,62 @@
+package kontroleri;
+
+import graf.DepartureProfile;
+import graf.RouteFinder;
+import javafx.beans.property.SimpleObjectProperty;
+import javafx.beans.property.SimpleStringProperty;
+import javafx.collections.FXCollections;
+import javafx.fxml.FXML;
+import javafx.scene.control.Label;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableView;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Shows every useful departure of the day between two cities from one profile search.
+ * Table rows are indexes into the profile.
+ */
+public class PolasciKontroler {
+
+    @FXML private Label titleLabel;
+    @FXML private TableView<Integer> departuresTable;
+    @FXML private TableColumn<Integer, String> departureColumn;
+    @FXML private TableColumn<Integer, String> arrivalColumn;
+    @FXML private TableColumn<Integer, Long> timeColumn;
+    @FXML private TableColumn<Integer, Double> costColumn;
+    @FXML private TableColumn<Integer, Integer> transfersColumn;
+
+    private DepartureProfile profile;
+    private final List<RouteFinder.Route> routes = new ArrayList<>();
+
+    public PolasciKontroler() {
+        // No-args constructor required by FXMLLoader
+    }
+
+    @FXML
+    private void initialize() {
+        departureColumn.setCellValueFactory(cellData ->
+                new SimpleStringProperty(profile.getDepartureTime(cellData.getValue()).toString()));
+        arrivalColumn.setCellValueFactory(cellData -> {
+            int index = cellData.getValue();
+            int day = profile.getArrivalDay(index);
+            return new SimpleStringProperty(profile.getArrivalTime(index) + (day > 0 ? " (+" + day + ")" : ""));
+        });
+        timeColumn.setCellValueFactory(cellData -> new SimpleObjectProperty<>(profile.getTravelTime(cellData.getValue())));
+        costColumn.setCellValueFactory(cellData -> new SimpleObjectProperty<>(routes.get(cellData.getValue()).getTotalCost()));
+        transfersColumn.setCellValueFactory(cellData -> new SimpleObjectProperty<>(routes.get(cellData.getValue()).getTransfers()));
+    }
+
+    public void setProfile(DepartureProfile profile) {
+        this.profile = profile;
+        routes.clear();
+        List<Integer> rows = new ArrayList<>();
+        for (int i = 0; i < profile.getDepartureCount(); i++) {
+            routes.add(profile.getRoute(i));
+            rows.add(i);
+        }
+        titleLabel.setText("Polasci " + profile.getSourceCity() + " -> " + profile.getDestinationCity()
+                + " (" + rows.size() + ")");
+        departuresTable.setItems(FXCollections.observableArrayList(rows));
+    }
+}
@@ -0,0 +1,75 @@
+package mjerenja;
+
+import graf.Graph;
+import graf.GraphBuilder;
+import graf.RouteFinder;
+import podaci.TransportDataGenerator;
+import stanice.Station;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures bytes allocated and time spent per route query for every criterion.
+ * Usage: AllocationBenchmark [rows cols [queries]]. Without arguments transport_data.json is used,
+ * otherwise a fresh grid of the given size is generated into a temporary file.
+ */
+public class AllocationBenchmark {
+    private static final LocalTime START_TIME = LocalTime.of(8, 0);
+    private static final int MAX_ROUTES = 5;
+
+    public static void main(String[] args) throws IOException {
+        String jsonFile = "transport_data.json";
+        if (args.length >= 2) {
+            int rows = Integer.parseInt(args[0]);
+            int cols = Integer.parseInt(args[1]);
+            File file = File.createTempFile("transport_data_" + rows + "x" + cols, ".json");
+            file.deleteOnExit();
+            TransportDataGenerator generator = new TransportDataGenerator(rows, cols);
+            generator.saveToJson(generator.generateData(), file.getPath());
+            jsonFile = file.getPath();
+        }
+        int queries = args.length >= 3 ? Integer.parseInt(args[2]) : 200;
+
+        GraphBuilder builder = new GraphBuilder();
+        Graph graph = builder.buildFromJson(jsonFile);
+        List<Station> stations = new ArrayList<>(builder.getBusStationMap().values());
+        System.out.println("Graph: " + graph.getStations().size() + " stations, " + queries + " queries per criterion");
+
+        Random random = new Random(42);
+        Station[][] pairs = new Station[queries][];
+        for (int i = 0; i < queries; i++) {
+            pairs[i] = new Station[]{stations.get(random.nextInt(stations.size())),
+                    stations.get(random.nextInt(stations.size()))};
+        }
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().threadId();
+        RouteFinder routeFinder = new RouteFinder();
+        for (RouteFinder.Criterion criterion : RouteFinder.Criterion.values()) {
+            // Warm-up pass so the measured pass sees compiled code and built indexes
+            runQueries(routeFinder, graph, pairs, criterion);
+
+            long bytesBefore = threads.getThreadAllocatedBytes(threadId);
+            long timeBefore = System.nanoTime();
+            int routes = runQueries(routeFinder, graph, pairs, criterion);
+            long elapsed = System.nanoTime() - timeBefore;
+            long allocated = threads.getThreadAllocatedBytes(threadId) - bytesBefore;
+
+            System.out.printf("%-9s %12d bytes/query %10.3f ms/query %6d routes%n",
+                    criterion, allocated / queries, elapsed / 1e6 / queries, routes);
+        }
+    }
+
+    private static int runQueries(RouteFinder routeFinder, Graph graph, Station[][] pairs, RouteFinder.Criterion criterion) {
+        int routes = 0;
+        for (Station[] pair : pairs) {
+            routes += routeFinder.findTopRoutes(graph, pair[0], pair[1], criterion, START_TIME, MAX_ROUTES).size();
+        }
+        return routes;
+    }
+}
@@ -0,0 +1,85 @@
+package mjerenja;
+
+import graf.ContractionHierarchy;
+import graf.Graph;
+import graf.GraphBuilder;
+import graf.RouteFinder;
+import podaci.TransportDataGenerator;
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalTime;
+import java.util.*;
+
+/**
+ * Compares single cheapest-route queries answered by Dijkstra with the same queries answered on
+ * a contraction hierarchy, on a generated grid, and reports the preprocessing cost.
+ * Usage: HierarchyBenchmark [rows cols [queries]]
+ */
+public class HierarchyBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int rows = args.length >= 2 ? Integer.parseInt(args[0]) : 50;
+        int cols = args.length >= 2 ? Integer.parseInt(args[1]) : 50;
+        int queries = args.length >= 3 ? Integer.parseInt(args[2]) : 500;
+
+        File file = File.createTempFile("transport_data_" + rows + "x" + cols, ".json");
+        file.deleteOnExit();
+        File hierarchyFile = File.createTempFile("hierarchy_" + rows + "x" + cols, ".bin");
+        hierarchyFile.deleteOnExit();
+        hierarchyFile.delete();
+        TransportDataGenerator generator = new TransportDataGenerator(rows, cols);
+        generator.saveToJson(generator.generateData(), file.getPath());
+        GraphBuilder builder = new GraphBuilder();
+        Graph graph = builder.buildFromJson(file.getPath());
+        System.out.println("Graph: " + graph.getCompactGraph().getStationCount() + " stations, "
+                + graph.getCompactGraph().getEdgeCount() + " edges, " + queries + " queries");
+
+        long start = System.nanoTime();
+        ContractionHierarchy hierarchy = builder.prepareCostHierarchy(graph, hierarchyFile.getPath());
+        System.out.printf("Contraction: %d ms, %d shortcuts, %d KB on disk%n", (System.nanoTime() - start) / 1_000_000,
+                hierarchy.getShortcutCount(), hierarchyFile.length() / 1024);
+        start = System.nanoTime();
+        builder.prepareCostHierarchy(graph, hierarchyFile.getPath());
+        System.out.printf("Loading:     %d ms%n", (System.nanoTime() - start) / 1_000_000);
+
+        Random random = new Random(42);
+        int cities = graph.getCompactGraph().getCityCount();
+        String[][] pairs = new String[queries][];
+        for (int i = 0; i < queries; i++) {
+            pairs[i] = new String[]{graph.getCompactGraph().getCityId(random.nextInt(cities)),
+                    graph.getCompactGraph().getCityId(random.nextInt(cities))};
+        }
+
+        RouteFinder routeFinder = new RouteFinder();
+        for (int pass = 0; pass < 2; pass++) {
+            // The first pass only warms up the JIT
+            graph.setContractionHierarchy(null);
+            start = System.nanoTime();
+            double checksum = run(routeFinder, graph, pairs);
+            report(pass, "Dijkstra", System.nanoTime() - start, queries, checksum);
+
+            graph.setContractionHierarchy(hierarchy);
+            start = System.nanoTime();
+            checksum = run(routeFinder, graph, pairs);
+            report(pass, "Hierarchy", System.nanoTime() - start, queries, checksum);
+        }
+    }
+
+    private static double run(RouteFinder routeFinder, Graph graph, String[][] pairs) {
+        double checksum = 0;
+        for (String[] pair : pairs) {
+            for (RouteFinder.Route route : routeFinder.findTopRoutes(graph, pair[0], pair[1],
+                    RouteFinder.Criterion.COST, LocalTime.of(8, 0), 1)) {
+                checksum += route.getTotalCost();
+            }
+        }
+        return checksum;
+    }
+
+    private static void report(int pass, String name, long nanos, int queries, double checksum) {
+        if (pass == 0) {
+            return;
+        }
+        System.out.printf("%-10s %8.3f ms/query  checksum %.1f%n", name, nanos / 1e6 / queries, checksum);
+    }
+}
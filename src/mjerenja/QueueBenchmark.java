@@ -0,0 +1,162 @@
+package mjerenja;
+
+import graf.Graph;
+import graf.GraphBuilder;
+import graf.IndexedMinHeap;
+import podaci.TransportDataGenerator;
+import stanice.Station;
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Compares java.util.PriorityQueue with lazy deletion against IndexedMinHeap as the queue of a
+ * cheapest-price Dijkstra from one station to all others on a generated grid.
+ * Usage: QueueBenchmark [rows cols [queries]]
+ */
+public class QueueBenchmark {
+
+    private static final class Entry {
+        final int station;
+        final double cost;
+
+        Entry(int station, double cost) {
+            this.station = station;
+            this.cost = cost;
+        }
+    }
+
+    // Adjacency of the benchmark graph: edges of station s are first[s] .. first[s + 1] - 1
+    private static int[] first;
+    private static int[] target;
+    private static double[] price;
+
+    public static void main(String[] args) throws IOException {
+        int rows = args.length >= 2 ? Integer.parseInt(args[0]) : 30;
+        int cols = args.length >= 2 ? Integer.parseInt(args[1]) : 30;
+        int queries = args.length >= 3 ? Integer.parseInt(args[2]) : 200;
+
+        File file = File.createTempFile("transport_data_" + rows + "x" + cols, ".json");
+        file.deleteOnExit();
+        TransportDataGenerator generator = new TransportDataGenerator(rows, cols);
+        generator.saveToJson(generator.generateData(), file.getPath());
+        Graph graph = new GraphBuilder().buildFromJson(file.getPath());
+        buildArrays(graph);
+        int n = first.length - 1;
+        System.out.println("Graph: " + n + " stations, " + target.length + " edges, " + queries + " queries");
+
+        Random random = new Random(42);
+        int[] sources = new int[queries];
+        for (int i = 0; i < queries; i++) {
+            sources[i] = random.nextInt(n);
+        }
+
+        double[] cost = new double[n];
+        IndexedMinHeap heap = new IndexedMinHeap(n);
+        for (int pass = 0; pass < 2; pass++) {
+            // The first pass only warms up the JIT
+            long start = System.nanoTime();
+            double checksum = 0;
+            int maxSize = 0;
+            for (int source : sources) {
+                maxSize = Math.max(maxSize, withPriorityQueue(source, cost));
+                checksum += sum(cost);
+            }
+            report(pass, "PriorityQueue", System.nanoTime() - start, queries, maxSize, checksum);
+
+            start = System.nanoTime();
+            checksum = 0;
+            maxSize = 0;
+            for (int source : sources) {
+                maxSize = Math.max(maxSize, withIndexedHeap(source, cost, heap));
+                checksum += sum(cost);
+            }
+            report(pass, "IndexedMinHeap", System.nanoTime() - start, queries, maxSize, checksum);
+        }
+    }
+
+    private static void buildArrays(Graph graph) {
+        List<Station> stations = new ArrayList<>(graph.getStations());
+        Map<Station, Integer> index = new HashMap<>();
+        for (int i = 0; i < stations.size(); i++) {
+            index.put(stations.get(i), i);
+        }
+        first = new int[stations.size() + 1];
+        List<Graph.Connection> edges = new ArrayList<>();
+        for (int s = 0; s < stations.size(); s++) {
+            first[s] = edges.size();
+            edges.addAll(graph.getConnections(stations.get(s)));
+        }
+        first[stations.size()] = edges.size();
+        target = new int[edges.size()];
+        price = new double[edges.size()];
+        for (int e = 0; e < edges.size(); e++) {
+            target[e] = index.get(edges.get(e).getDestination());
+            price[e] = edges.get(e).getCost();
+        }
+    }
+
+    /**
+     * Returns the largest queue size reached.
+     */
+    private static int withPriorityQueue(int source, double[] cost) {
+        Arrays.fill(cost, Double.MAX_VALUE);
+        PriorityQueue<Entry> queue = new PriorityQueue<>(Comparator.comparingDouble(entry -> entry.cost));
+        cost[source] = 0;
+        queue.add(new Entry(source, 0));
+        int maxSize = 1;
+        while (!queue.isEmpty()) {
+            Entry entry = queue.poll();
+            if (entry.cost > cost[entry.station]) {
+                continue; // stale entry
+            }
+            for (int e = first[entry.station]; e < first[entry.station + 1]; e++) {
+                double next = entry.cost + price[e];
+                if (next < cost[target[e]]) {
+                    cost[target[e]] = next;
+                    queue.add(new Entry(target[e], next));
+                }
+            }
+            maxSize = Math.max(maxSize, queue.size());
+        }
+        return maxSize;
+    }
+
+    private static int withIndexedHeap(int source, double[] cost, IndexedMinHeap heap) {
+        Arrays.fill(cost, Double.MAX_VALUE);
+        heap.clear();
+        cost[source] = 0;
+        heap.offer(source, 0);
+        int maxSize = 1;
+        while (!heap.isEmpty()) {
+            int station = heap.poll();
+            for (int e = first[station]; e < first[station + 1]; e++) {
+                double next = cost[station] + price[e];
+                if (next < cost[target[e]]) {
+                    cost[target[e]] = next;
+                    heap.offer(target[e], next);
+                }
+            }
+            maxSize = Math.max(maxSize, heap.size());
+        }
+        return maxSize;
+    }
+
+    private static double sum(double[] cost) {
+        double sum = 0;
+        for (double c : cost) {
+            if (c != Double.MAX_VALUE) {
+                sum += c;
+            }
+        }
+        return sum;
+    }
+
+    private static void report(int pass, String name, long nanos, int queries, int maxSize, double checksum) {
+        if (pass == 0) {
+            return;
+        }
+        System.out.printf("%-15s %8.3f ms/query  max queue %7d  checksum %.1f%n",
+                name, nanos / 1e6 / queries, maxSize, checksum);
+    }
+}
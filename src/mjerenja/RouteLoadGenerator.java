@@ -0,0 +1,114 @@
+package mjerenja;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends random route queries to a running RouteServer from a fixed number of clients, each
+ * waiting for its answer before sending the next, and reports throughput and latency percentiles.
+ * Usage: RouteLoadGenerator [baseUrl [clients [seconds [k]]]]
+ */
+public class RouteLoadGenerator {
+    private static final String[] CRITERIA = {"TIME", "COST", "TRANSFERS"};
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String baseUrl = args.length >= 1 ? args[0] : "http://localhost:8080";
+        int clients = args.length >= 2 ? Integer.parseInt(args[1]) : 8;
+        int seconds = args.length >= 3 ? Integer.parseInt(args[2]) : 10;
+        int k = args.length >= 4 ? Integer.parseInt(args[3]) : 5;
+
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5)).build();
+        List<String> cities = fetchCities(client, baseUrl);
+        System.out.println(cities.size() + " cities, " + clients + " clients, " + seconds + " s");
+
+        // Warm up the server's JIT before measuring
+        runClients(client, baseUrl, cities, clients, Math.max(1, seconds / 5), k, new Random(1), new AtomicLong());
+        AtomicLong errors = new AtomicLong();
+        long start = System.nanoTime();
+        long[] all = runClients(client, baseUrl, cities, clients, seconds, k, new Random(42), errors);
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("Requests: %d (%d errors) in %.1f s, %.0f req/s%n", all.length, errors.get(), elapsed,
+                all.length / elapsed);
+        if (all.length > 0) {
+            System.out.printf("Latency: p50 %.2f ms, p90 %.2f ms, p99 %.2f ms, max %.2f ms%n",
+                    percentile(all, 0.50), percentile(all, 0.90), percentile(all, 0.99), all[all.length - 1] / 1e6);
+        }
+    }
+
+    /**
+     * Runs the clients until the deadline and returns every latency in nanoseconds, sorted.
+     */
+    private static long[] runClients(HttpClient client, String baseUrl, List<String> cities, int clients, int seconds,
+                                     int k, Random random, AtomicLong errors) throws InterruptedException {
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        long[][] latencies = new long[clients][];
+        Thread[] threads = new Thread[clients];
+        for (int c = 0; c < clients; c++) {
+            Random own = new Random(random.nextLong());
+            int index = c;
+            threads[c] = new Thread(() -> {
+                long[] samples = new long[1024];
+                int count = 0;
+                while (System.nanoTime() < deadline) {
+                    String uri = baseUrl + "/route?from=" + cities.get(own.nextInt(cities.size()))
+                            + "&to=" + cities.get(own.nextInt(cities.size()))
+                            + "&criterion=" + CRITERIA[own.nextInt(CRITERIA.length)] + "&k=" + k;
+                    long sent = System.nanoTime();
+                    try {
+                        HttpResponse<String> response = client.send(HttpRequest.newBuilder(URI.create(uri)).build(),
+                                HttpResponse.BodyHandlers.ofString());
+                        if (response.statusCode() != 200) {
+                            errors.incrementAndGet();
+                            continue;
+                        }
+                    } catch (IOException e) {
+                        errors.incrementAndGet();
+                        continue;
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                    if (count == samples.length) {
+                        samples = Arrays.copyOf(samples, count * 2);
+                    }
+                    samples[count++] = System.nanoTime() - sent;
+                }
+                latencies[index] = Arrays.copyOf(samples, count);
+            }, "load-client-" + c);
+            threads[c].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return Arrays.stream(latencies).flatMapToLong(Arrays::stream).sorted().toArray();
+    }
+
+    private static List<String> fetchCities(HttpClient client, String baseUrl) throws IOException, InterruptedException {
+        HttpResponse<String> response = client.send(HttpRequest.newBuilder(URI.create(baseUrl + "/cities")).build(),
+                HttpResponse.BodyHandlers.ofString());
+        try (JsonReader reader = Json.createReader(new StringReader(response.body()))) {
+            JsonArray array = reader.readObject().getJsonArray("cities");
+            List<String> cities = new ArrayList<>();
+            for (int i = 0; i < array.size(); i++) {
+                cities.add(array.getString(i));
+            }
+            return cities;
+        }
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+}
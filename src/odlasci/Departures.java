@@ -32,10 +32,10 @@ public class Departures {
     public int getMinWaitingTime() { return minWaitingTime; }
 
     /**
-     * Calculates travel time in minutes.
+     * Calculates travel time in minutes, including trips that arrive after midnight.
      */
     public long getTravelTime() {
-        return java.time.Duration.between(departureTime, arrivalTime).toMinutes();
+        return Math.floorMod(java.time.Duration.between(departureTime, arrivalTime).toMinutes(), 24 * 60);
     }
 
     @Override
@@ -0,0 +1,276 @@
+package podaci;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+
+/**
+ * Binary timetable format, read through a memory mapping instead of being parsed as text.
+ * Layout (big-endian):
+ * <pre>
+ * header      int magic "TTB1", int rows, int cols, int cityCount, int departureCount,
+ *             int reserved, long departuresOffset
+ * countryMap  rows * cols int city indexes
+ * cities      cityCount * (city, busStation, trainStation), each a short length and UTF-8 bytes
+ * departures  at departuresOffset, departureCount fixed 20-byte records:
+ *             int source, int destination, int price, short minute, short duration,
+ *             short minTransferTime, short reserved
+ * </pre>
+ * Stations are numbered from the cities: the bus station of city i is 2 * i and its train
+ * station 2 * i + 1. A departure's minute is its minute of the day.
+ * Usage: BinaryTimetable [transport_data.json [transport_data.ttb]]
+ */
+public class BinaryTimetable {
+    private static final int MAGIC = 0x54544231; // "TTB1"
+    private static final int HEADER_SIZE = 32;
+    private static final int RECORD_SIZE = 20;
+    // Departures are mapped in windows that stay below the 2 GB limit of one mapping
+    private static final int RECORDS_PER_WINDOW = Integer.MAX_VALUE / RECORD_SIZE;
+
+    /**
+     * Receives the contents of a binary timetable in file order: the map, every station pair,
+     * then every departure.
+     */
+    public interface TimetableHandler {
+        void countryMap(String[][] countryMap);
+
+        void station(int city, String cityId, String busStation, String trainStation);
+
+        void departure(int source, int destination, int minute, int duration, int price, int minTransferTime);
+    }
+
+    public static void main(String[] args) {
+        String jsonFile = args.length >= 1 ? args[0] : "transport_data.json";
+        String binaryFile = args.length >= 2 ? args[1] : "transport_data.ttb";
+        long start = System.nanoTime();
+        try {
+            convert(jsonFile, binaryFile);
+        } catch (IOException e) {
+            System.err.println("Error converting " + jsonFile + ": " + e.getMessage());
+            return;
+        }
+        System.out.printf("Converted %s to %s (%d KB) in %d ms%n", jsonFile, binaryFile,
+                new File(binaryFile).length() / 1024, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Converts a transport data file (JSON, optionally gzipped) to the binary format. The JSON is
+     * streamed, so only the stations are held in memory. Departures with unknown stations or types
+     * are skipped with a message, as GraphBuilder does.
+     */
+    public static void convert(String jsonFile, String binaryFile) throws IOException {
+        Converter converter = new Converter(binaryFile);
+        try {
+            TransportDataParser.streamTransportData(jsonFile, converter);
+            converter.finish();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            converter.out.close();
+        }
+        if (converter.skipped > 0) {
+            System.out.println("Skipped " + converter.skipped + " departures due to invalid stations or types.");
+        }
+        try (RandomAccessFile file = new RandomAccessFile(binaryFile, "rw")) {
+            file.seek(16);
+            file.writeInt(converter.departures);
+        }
+    }
+
+    /**
+     * Memory-maps a binary timetable and hands its contents to the handler. Departure records are
+     * read straight from the mapping; only station ids are turned into strings.
+     */
+    public static void read(String binaryFile, TimetableHandler handler) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(binaryFile), StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE) {
+                throw new IOException(binaryFile + " is not a binary timetable");
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC) {
+                throw new IOException(binaryFile + " is not a binary timetable");
+            }
+            int rows = header.getInt();
+            int cols = header.getInt();
+            int cities = header.getInt();
+            int departures = header.getInt();
+            header.getInt();
+            long departuresOffset = header.getLong();
+            if (departuresOffset < HEADER_SIZE || departuresOffset + (long) departures * RECORD_SIZE != channel.size()) {
+                throw new IOException(binaryFile + " is truncated or damaged");
+            }
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE,
+                    departuresOffset - HEADER_SIZE);
+            int[] mapIndexes = new int[rows * cols];
+            for (int i = 0; i < mapIndexes.length; i++) {
+                mapIndexes[i] = buffer.getInt();
+            }
+            String[] cityIds = new String[cities];
+            String[][] stationIds = new String[cities][];
+            for (int c = 0; c < cities; c++) {
+                cityIds[c] = readString(buffer);
+                stationIds[c] = new String[]{readString(buffer), readString(buffer)};
+            }
+            String[][] countryMap = new String[rows][cols];
+            for (int i = 0; i < mapIndexes.length; i++) {
+                countryMap[i / cols][i % cols] = mapIndexes[i] >= 0 ? cityIds[mapIndexes[i]] : null;
+            }
+            handler.countryMap(countryMap);
+            for (int c = 0; c < cities; c++) {
+                handler.station(c, cityIds[c], stationIds[c][0], stationIds[c][1]);
+            }
+
+            int stations = 2 * cities;
+            for (int first = 0; first < departures; first += RECORDS_PER_WINDOW) {
+                int count = Math.min(RECORDS_PER_WINDOW, departures - first);
+                MappedByteBuffer records = channel.map(FileChannel.MapMode.READ_ONLY,
+                        departuresOffset + (long) first * RECORD_SIZE, (long) count * RECORD_SIZE);
+                for (int i = 0; i < count; i++) {
+                    int source = records.getInt();
+                    int destination = records.getInt();
+                    int price = records.getInt();
+                    int minute = records.getShort();
+                    int duration = records.getShort();
+                    int minTransferTime = records.getShort();
+                    records.getShort();
+                    if (source < 0 || source >= stations || destination < 0 || destination >= stations
+                            || minute < 0 || minute >= 24 * 60 || duration < 0 || minTransferTime < 0) {
+                        throw new IOException(binaryFile + " has an invalid departure record " + (first + i));
+                    }
+                    handler.departure(source, destination, minute, duration, price, minTransferTime);
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException(binaryFile + " is truncated or damaged", e);
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes the binary file while the JSON is being read. The cities are written when the first
+     * departure arrives, which is also when the offset of the departures becomes known.
+     */
+    private static class Converter implements TransportDataParser.TransportDataHandler {
+        private final DataOutputStream out;
+        private String[][] countryMap = new String[0][0];
+        private final List<TransportDataGenerator.Station> cities = new ArrayList<>();
+        private final Map<String, Integer> stationIndex = new HashMap<>();
+        private final Map<String, Integer> cityIndex = new HashMap<>();
+        private boolean citiesWritten;
+        private int departures;
+        private int skipped;
+
+        Converter(String binaryFile) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(binaryFile), 1 << 16));
+        }
+
+        @Override
+        public void countryMap(String[][] countryMap) {
+            this.countryMap = countryMap;
+        }
+
+        @Override
+        public void station(TransportDataGenerator.Station station) {
+            int city = cities.size();
+            cities.add(station);
+            cityIndex.put(station.city, city);
+            stationIndex.put(station.busStation, 2 * city);
+            stationIndex.put(station.trainStation, 2 * city + 1);
+        }
+
+        @Override
+        public void departure(TransportDataGenerator.Departure d) {
+            try {
+                writeCities();
+                Integer source = stationIndex.get(d.from);
+                Integer city = cityIndex.get(d.to);
+                int type = "autobus".equals(d.type) ? 0 : "voz".equals(d.type) ? 1 : -1;
+                if (type < 0) {
+                    System.out.println("Invalid departure type: " + d.type);
+                    skipped++;
+                    return;
+                }
+                if (source == null || city == null) {
+                    System.out.println("Skipping departure: from=" + d.from + ", to=" + d.to);
+                    skipped++;
+                    return;
+                }
+                if (d.duration < 0 || d.duration > Short.MAX_VALUE
+                        || d.minTransferTime < 0 || d.minTransferTime > Short.MAX_VALUE) {
+                    throw new IOException("Departure " + d.from + " -> " + d.to + " at " + d.departureTime
+                            + " does not fit the binary format");
+                }
+                out.writeInt(source);
+                out.writeInt(2 * city + type);
+                out.writeInt(d.price);
+                out.writeShort(LocalTime.parse(d.departureTime).toSecondOfDay() / 60);
+                out.writeShort(d.duration);
+                out.writeShort(d.minTransferTime);
+                out.writeShort(0);
+                departures++;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (DateTimeParseException e) {
+                throw new UncheckedIOException(new IOException("Invalid departure time: " + d.departureTime, e));
+            }
+        }
+
+        void finish() throws IOException {
+            writeCities();
+            out.flush();
+        }
+
+        private void writeCities() throws IOException {
+            if (citiesWritten) {
+                return;
+            }
+            citiesWritten = true;
+            int rows = countryMap.length;
+            int cols = rows > 0 ? countryMap[0].length : 0;
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            DataOutputStream section = new DataOutputStream(body);
+            for (String[] row : countryMap) {
+                for (String cityId : row) {
+                    section.writeInt(cityIndex.getOrDefault(cityId, -1));
+                }
+            }
+            for (TransportDataGenerator.Station s : cities) {
+                writeString(section, s.city);
+                writeString(section, s.busStation);
+                writeString(section, s.trainStation);
+            }
+
+            out.writeInt(MAGIC);
+            out.writeInt(rows);
+            out.writeInt(cols);
+            out.writeInt(cities.size());
+            out.writeInt(0); // departure count, filled in at the end
+            out.writeInt(0);
+            out.writeLong(HEADER_SIZE + body.size());
+            body.writeTo(out);
+        }
+
+        private static void writeString(DataOutputStream out, String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > 0xFFFF) {
+                throw new IOException("Station id too long: " + value.substring(0, 32) + "...");
+            }
+            out.writeShort(bytes.length);
+            out.write(bytes);
+        }
+    }
+}
@@ -1,18 +1,43 @@
 package podaci;
 
-import java.io.FileWriter;
-import java.io.IOException;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.GZIPOutputStream;
 
 public class TransportDataGenerator {
     private final int n;
     private final int m;
     private static final int DEPARTURES_PER_STATION = 15;
-    private final Random random = new Random();
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final String[] DEPARTURE_TIMES = new String[24 * 4];
+    private final long seed;
+
+    static {
+        for (int i = 0; i < DEPARTURE_TIMES.length; i++) {
+            DEPARTURE_TIMES[i] = String.format("%02d:%02d", i / 4, i % 4 * 15);
+        }
+    }
 
     public TransportDataGenerator(int n, int m) {
+        this(n, m, new SplittableRandom().nextLong());
+    }
+
+    /**
+     * A generator whose output depends only on the grid size and the seed. Every grid row draws
+     * from its own random stream derived from the seed, so the data is the same whether the rows
+     * are generated one after another or in parallel.
+     */
+    public TransportDataGenerator(int n, int m, long seed) {
         this.n = n;
         this.m = m;
+        this.seed = seed;
+    }
+
+    public long getSeed() {
+        return seed;
     }
 
     public static void main(String[] args) {
@@ -24,11 +49,22 @@ public class TransportDataGenerator {
         System.out.println("Unesite broj kolona (m): ");
         int cols = scanner.nextInt();
 
-        TransportDataGenerator generator = new TransportDataGenerator(rows, cols);
-        TransportData data = generator.generateData();
-        generator.saveToJson(data, "transport_data.json");
+        // Optional arguments: file name (.gz writes a compressed file), seed, number of threads
+        String filename = args.length > 0 ? args[0] : "transport_data.json";
+        TransportDataGenerator generator = args.length > 1
+                ? new TransportDataGenerator(rows, cols, Long.parseLong(args[1]))
+                : new TransportDataGenerator(rows, cols);
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        long start = System.nanoTime();
+        try {
+            generator.writeJson(filename, threads);
+        } catch (IOException e) {
+            System.err.println("Greška pri upisu u " + filename + ": " + e.getMessage());
+            return;
+        }
 
-        System.out.println("Podaci za matricu " + rows + "x" + cols + " su generisani i sačuvani kao transport_data.json");
+        System.out.println("Podaci za matricu " + rows + "x" + cols + " su generisani i sačuvani kao " + filename
+                + " (seed " + generator.getSeed() + ", " + (System.nanoTime() - start) / 1_000_000 + " ms)");
     }
 
 
@@ -58,7 +94,7 @@ public class TransportDataGenerator {
         TransportData data = new TransportData();
         data.countryMap = generateCountryMap();
         data.stations = generateStations();
-        data.departures = generateDepartures(data.stations);
+        data.departures = generateDepartures();
         return data;
     }
 
@@ -76,42 +112,60 @@ public class TransportDataGenerator {
         List<Station> stations = new ArrayList<>();
         for (int x = 0; x < n; x++) {
             for (int y = 0; y < m; y++) {
-                Station station = new Station();
-                station.city = "G_" + x + "_" + y;
-                station.busStation = "A_" + x + "_" + y;
-                station.trainStation = "Z_" + x + "_" + y;
-                stations.add(station);
+                stations.add(station(x, y));
             }
         }
         return stations;
     }
 
-    private List<Departure> generateDepartures(List<Station> stations) {
-        List<Departure> departures = new ArrayList<>();
+    private static Station station(int x, int y) {
+        Station station = new Station();
+        station.city = "G_" + x + "_" + y;
+        station.busStation = "A_" + x + "_" + y;
+        station.trainStation = "Z_" + x + "_" + y;
+        return station;
+    }
 
-        for (Station station : stations) {
-            int x = Integer.parseInt(station.city.split("_")[1]);
-            int y = Integer.parseInt(station.city.split("_")[2]);
+    private List<Departure> generateDepartures() {
+        List<Departure> departures = new ArrayList<>(n * m * DEPARTURES_PER_STATION * 2);
+        SplittableRandom[] rowRandoms = rowRandoms();
 
-            for (int i = 0; i < DEPARTURES_PER_STATION; i++) {
-                departures.add(generateDeparture("autobus", station.busStation, x, y));
-                departures.add(generateDeparture("voz", station.trainStation, x, y));
+        for (int x = 0; x < n; x++) {
+            SplittableRandom random = rowRandoms[x];
+            for (int y = 0; y < m; y++) {
+                Station station = station(x, y);
+                String[] neighbors = getNeighbors(x, y);
+                for (int i = 0; i < DEPARTURES_PER_STATION; i++) {
+                    departures.add(generateDeparture("autobus", station.busStation, neighbors, random));
+                    departures.add(generateDeparture("voz", station.trainStation, neighbors, random));
+                }
             }
         }
         return departures;
     }
 
-    private Departure generateDeparture(String type, String from, int x, int y) {
+    /**
+     * One random stream per grid row, split off the seed in row order.
+     */
+    private SplittableRandom[] rowRandoms() {
+        SplittableRandom root = new SplittableRandom(seed);
+        SplittableRandom[] rowRandoms = new SplittableRandom[n];
+        for (int x = 0; x < n; x++) {
+            rowRandoms[x] = root.split();
+        }
+        return rowRandoms;
+    }
+
+    private static Departure generateDeparture(String type, String from, String[] neighbors, SplittableRandom random) {
         Departure departure = new Departure();
         departure.type = type;
         departure.from = from;
 
-        List<String> neighbors = getNeighbors(x, y);
-        departure.to = neighbors.isEmpty() ? from : neighbors.get(random.nextInt(neighbors.size()));
+        departure.to = neighbors.length == 0 ? from : neighbors[random.nextInt(neighbors.length)];
 
         int hour = random.nextInt(24);
-        int minute = random.nextInt(4) * 15;
-        departure.departureTime = String.format("%02d:%02d", hour, minute);
+        int quarter = random.nextInt(4);
+        departure.departureTime = DEPARTURE_TIMES[hour * 4 + quarter];
 
         departure.duration = 30 + random.nextInt(151); // 30–180 min
         departure.price = 100 + random.nextInt(901);   // 100–1000 KM
@@ -120,8 +174,8 @@ public class TransportDataGenerator {
         return departure;
     }
 
-    private List<String> getNeighbors(int x, int y) {
-        List<String> neighbors = new ArrayList<>();
+    private String[] getNeighbors(int x, int y) {
+        List<String> neighbors = new ArrayList<>(4);
         int[][] directions = { {-1, 0}, {1, 0}, {0, -1}, {0, 1} };
 
         for (int[] dir : directions) {
@@ -131,62 +185,161 @@ public class TransportDataGenerator {
                 neighbors.add("G_" + nx + "_" + ny);
             }
         }
-        return neighbors;
+        return neighbors.toArray(new String[0]);
     }
 
+    /**
+     * Writes already generated data to filename. A name ending in ".gz" is written gzip-compressed.
+     */
     public void saveToJson(TransportData data, String filename) {
-        try (FileWriter file = new FileWriter(filename)) {
-            StringBuilder json = new StringBuilder();
-            json.append("{\n");
-
-            // countryMap
-            json.append("  \"countryMap\": [\n");
+        try (Writer out = openWriter(filename)) {
+            out.write("{\n");
+            out.write("  \"countryMap\": [\n");
             for (int i = 0; i < n; i++) {
-                json.append("    [");
-                for (int j = 0; j < m; j++) {
-                    json.append("\"").append(data.countryMap[i][j]).append("\"");
-                    if (j < m - 1) json.append(", ");
-                }
-                json.append("]");
-                if (i < n - 1) json.append(",");
-                json.append("\n");
+                writeCountryRow(out, data.countryMap[i], i == n - 1);
             }
-            json.append("  ],\n");
+            out.write("  ],\n");
 
-            // stations
-            json.append("  \"stations\": [\n");
+            out.write("  \"stations\": [\n");
             for (int i = 0; i < data.stations.size(); i++) {
-                Station s = data.stations.get(i);
-                json.append("    {\"city\": \"").append(s.city)
-                        .append("\", \"busStation\": \"").append(s.busStation)
-                        .append("\", \"trainStation\": \"").append(s.trainStation)
-                        .append("\"}");
-                if (i < data.stations.size() - 1) json.append(",");
-                json.append("\n");
+                writeStation(out, data.stations.get(i), i == data.stations.size() - 1);
             }
-            json.append("  ],\n");
+            out.write("  ],\n");
 
-            // departures
-            json.append("  \"departures\": [\n");
+            out.write("  \"departures\": [\n");
             for (int i = 0; i < data.departures.size(); i++) {
-                Departure d = data.departures.get(i);
-                json.append("    {\"type\": \"").append(d.type)
-                        .append("\", \"from\": \"").append(d.from)
-                        .append("\", \"to\": \"").append(d.to)
-                        .append("\", \"departureTime\": \"").append(d.departureTime)
-                        .append("\", \"duration\": ").append(d.duration)
-                        .append(", \"price\": ").append(d.price)
-                        .append(", \"minTransferTime\": ").append(d.minTransferTime)
-                        .append("}");
-                if (i < data.departures.size() - 1) json.append(",");
-                json.append("\n");
+                writeDeparture(out, data.departures.get(i), i == data.departures.size() - 1);
             }
-            json.append("  ]\n");
-
-            json.append("}");
-            file.write(json.toString());
+            out.write("  ]\n");
+            out.write("}");
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
+
+    /**
+     * Generates a network and writes each record as soon as it is generated, so memory use does
+     * not grow with the grid and networks larger than the heap can be written. The file has the
+     * same layout as {@link #saveToJson}; a name ending in ".gz" is written gzip-compressed.
+     * Departures are generated on all available processors.
+     */
+    public void writeJson(String filename) throws IOException {
+        writeJson(filename, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Like {@link #writeJson(String)}, with the grid rows' departures generated by the given
+     * number of threads. A few rows are generated ahead and written in row order, so the file is
+     * the same for a seed whatever the number of threads.
+     */
+    public void writeJson(String filename, int threads) throws IOException {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Number of threads must be positive: " + threads);
+        }
+        SplittableRandom[] rowRandoms = rowRandoms();
+        try (Writer out = openWriter(filename)) {
+            out.write("{\n");
+            out.write("  \"countryMap\": [\n");
+            String[] row = new String[m];
+            for (int x = 0; x < n; x++) {
+                for (int y = 0; y < m; y++) {
+                    row[y] = "G_" + x + "_" + y;
+                }
+                writeCountryRow(out, row, x == n - 1);
+            }
+            out.write("  ],\n");
+
+            out.write("  \"stations\": [\n");
+            for (int x = 0; x < n; x++) {
+                for (int y = 0; y < m; y++) {
+                    writeStation(out, station(x, y), x == n - 1 && y == m - 1);
+                }
+            }
+            out.write("  ],\n");
+
+            out.write("  \"departures\": [\n");
+            if (threads == 1) {
+                for (int x = 0; x < n; x++) {
+                    writeDepartureRow(out, x, rowRandoms[x]);
+                }
+            } else {
+                writeDepartureRows(out, rowRandoms, threads);
+            }
+            out.write("  ]\n");
+            out.write("}");
+        }
+    }
+
+    private void writeDepartureRows(Writer out, SplittableRandom[] rowRandoms, int threads) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            Deque<ForkJoinTask<String>> pending = new ArrayDeque<>();
+            for (int x = 0; x < n; x++) {
+                int row = x;
+                pending.add(pool.submit(() -> {
+                    StringWriter rowOut = new StringWriter();
+                    writeDepartureRow(rowOut, row, rowRandoms[row]);
+                    return rowOut.toString();
+                }));
+                if (pending.size() >= 2 * threads) {
+                    out.write(pending.poll().join());
+                }
+            }
+            while (!pending.isEmpty()) {
+                out.write(pending.poll().join());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private void writeDepartureRow(Writer out, int x, SplittableRandom random) throws IOException {
+        for (int y = 0; y < m; y++) {
+            Station station = station(x, y);
+            String[] neighbors = getNeighbors(x, y);
+            boolean lastStation = x == n - 1 && y == m - 1;
+            for (int i = 0; i < DEPARTURES_PER_STATION; i++) {
+                writeDeparture(out, generateDeparture("autobus", station.busStation, neighbors, random), false);
+                writeDeparture(out, generateDeparture("voz", station.trainStation, neighbors, random),
+                        lastStation && i == DEPARTURES_PER_STATION - 1);
+            }
+        }
+    }
+
+    private static Writer openWriter(String filename) throws IOException {
+        OutputStream stream = new FileOutputStream(filename);
+        if (filename.endsWith(".gz")) {
+            stream = new GZIPOutputStream(stream, BUFFER_SIZE);
+        }
+        return new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+
+    private static void writeCountryRow(Writer out, String[] row, boolean last) throws IOException {
+        out.write("    [");
+        for (int j = 0; j < row.length; j++) {
+            out.write("\"");
+            out.write(row[j]);
+            out.write("\"");
+            if (j < row.length - 1) out.write(", ");
+        }
+        out.write(last ? "]\n" : "],\n");
+    }
+
+    private static void writeStation(Writer out, Station s, boolean last) throws IOException {
+        out.write("    {\"city\": \"" + s.city
+                + "\", \"busStation\": \"" + s.busStation
+                + "\", \"trainStation\": \"" + s.trainStation
+                + (last ? "\"}\n" : "\"},\n"));
+    }
+
+    private static void writeDeparture(Writer out, Departure d, boolean last) throws IOException {
+        out.write("    {\"type\": \"" + d.type
+                + "\", \"from\": \"" + d.from
+                + "\", \"to\": \"" + d.to
+                + "\", \"departureTime\": \"" + d.departureTime
+                + "\", \"duration\": " + d.duration
+                + ", \"price\": " + d.price
+                + ", \"minTransferTime\": " + d.minTransferTime
+                + (last ? "}\n" : "},\n"));
+    }
 }
\ No newline at end of file
@@ -1,11 +1,16 @@
 package podaci;
 
 import javax.json.*;
-import java.io.FileReader;
-import java.util.ArrayList;
-import java.util.List;
+import javax.json.stream.JsonParser;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
 
 public class TransportDataParser {
+    private static final int BUFFER_SIZE = 1 << 16;
 
     public static class TransportData {
         public String[][] countryMap;
@@ -13,58 +18,211 @@ public class TransportDataParser {
         public List<TransportDataGenerator.Departure> departures;
     }
 
+    /**
+     * Timetable changes: departures to add, to remove and to replace. A departure is identified by its
+     * type, from, to and departureTime; removed departures may leave the other fields out.
+     */
+    public static class TransportDelta {
+        public List<TransportDataGenerator.Departure> added = new ArrayList<>();
+        public List<TransportDataGenerator.Departure> removed = new ArrayList<>();
+        public List<TransportDataGenerator.Departure> changed = new ArrayList<>();
+
+        public int size() {
+            return added.size() + removed.size() + changed.size();
+        }
+    }
+
+    /**
+     * Receives the records of a transport data file one at a time, in file order. Files written by
+     * TransportDataGenerator list the map first, then the stations, then the departures.
+     */
+    public interface TransportDataHandler {
+        void countryMap(String[][] countryMap);
+
+        void station(TransportDataGenerator.Station station);
+
+        void departure(TransportDataGenerator.Departure departure);
+    }
+
     public static TransportData readTransportData(String filename) {
         TransportData data = new TransportData();
+        data.stations = new ArrayList<>();
+        data.departures = new ArrayList<>();
 
-        try (JsonReader reader = Json.createReader(new FileReader(filename))) {
-            JsonObject root = reader.readObject();
+        try {
+            streamTransportData(filename, new TransportDataHandler() {
+                @Override
+                public void countryMap(String[][] countryMap) {
+                    data.countryMap = countryMap;
+                }
+
+                @Override
+                public void station(TransportDataGenerator.Station station) {
+                    data.stations.add(station);
+                }
 
-            // Parsiranje countryMap
-            JsonArray mapArray = root.getJsonArray("countryMap");
-            int rows = mapArray.size();
-            int cols = mapArray.getJsonArray(0).size();
-            data.countryMap = new String[rows][cols];
+                @Override
+                public void departure(TransportDataGenerator.Departure departure) {
+                    data.departures.add(departure);
+                }
+            });
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        return data;
+    }
 
-            for (int i = 0; i < rows; i++) {
-                JsonArray row = mapArray.getJsonArray(i);
-                for (int j = 0; j < cols; j++) {
-                    data.countryMap[i][j] = row.getString(j);
+    /**
+     * Reads a transport data file with the streaming parser and hands every record to the handler
+     * as soon as it has been read. No document tree or record list is built, so a caller that
+     * turns records straight into its own structures never holds the file in memory.
+     */
+    public static void streamTransportData(String filename, TransportDataHandler handler) throws IOException {
+        try (JsonParser parser = Json.createParser(openReader(filename))) {
+            expect(parser, JsonParser.Event.START_OBJECT);
+            while (parser.next() == JsonParser.Event.KEY_NAME) {
+                String key = parser.getString();
+                switch (key) {
+                    case "countryMap" -> handler.countryMap(readCountryMap(parser));
+                    case "stations" -> {
+                        expect(parser, JsonParser.Event.START_ARRAY);
+                        while (parser.next() == JsonParser.Event.START_OBJECT) {
+                            handler.station(readStation(parser));
+                        }
+                    }
+                    case "departures" -> {
+                        expect(parser, JsonParser.Event.START_ARRAY);
+                        while (parser.next() == JsonParser.Event.START_OBJECT) {
+                            handler.departure(readDeparture(parser));
+                        }
+                    }
+                    default -> skipValue(parser);
                 }
             }
+        } catch (JsonException | IllegalStateException | NoSuchElementException e) {
+            throw new IOException("Invalid transport data file " + filename + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Opens a data file for reading; files whose name ends in ".gz" are decompressed on the fly.
+     */
+    private static Reader openReader(String filename) throws IOException {
+        InputStream stream = Files.newInputStream(Paths.get(filename));
+        if (filename.endsWith(".gz")) {
+            stream = new GZIPInputStream(stream, BUFFER_SIZE);
+        }
+        return new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
 
-            // Parsiranje stations
-            data.stations = new ArrayList<>();
-            JsonArray stationsArray = root.getJsonArray("stations");
-            for (JsonValue val : stationsArray) {
-                JsonObject obj = val.asJsonObject();
-                TransportDataGenerator.Station s = new TransportDataGenerator.Station();
-                s.city = obj.getString("city");
-                s.busStation = obj.getString("busStation");
-                s.trainStation = obj.getString("trainStation");
-                data.stations.add(s);
+    private static String[][] readCountryMap(JsonParser parser) {
+        expect(parser, JsonParser.Event.START_ARRAY);
+        List<String[]> rows = new ArrayList<>();
+        while (parser.next() == JsonParser.Event.START_ARRAY) {
+            List<String> row = new ArrayList<>();
+            while (parser.next() == JsonParser.Event.VALUE_STRING) {
+                row.add(parser.getString());
             }
+            rows.add(row.toArray(new String[0]));
+        }
+        return rows.toArray(new String[0][]);
+    }
 
-            // Parsiranje departures
-            data.departures = new ArrayList<>();
-            JsonArray departuresArray = root.getJsonArray("departures");
-            for (JsonValue val : departuresArray) {
-                JsonObject obj = val.asJsonObject();
-                TransportDataGenerator.Departure d = new TransportDataGenerator.Departure();
-                d.type = obj.getString("type");
-                d.from = obj.getString("from");
-                d.to = obj.getString("to");
-                d.departureTime = obj.getString("departureTime");
-                d.duration = obj.getInt("duration");
-                d.price = obj.getInt("price");
-                d.minTransferTime = obj.getInt("minTransferTime");
-                data.departures.add(d);
+    private static TransportDataGenerator.Station readStation(JsonParser parser) {
+        TransportDataGenerator.Station s = new TransportDataGenerator.Station();
+        while (parser.next() == JsonParser.Event.KEY_NAME) {
+            String key = parser.getString();
+            switch (key) {
+                case "city" -> s.city = readString(parser);
+                case "busStation" -> s.busStation = readString(parser);
+                case "trainStation" -> s.trainStation = readString(parser);
+                default -> skipValue(parser);
             }
+        }
+        return s;
+    }
 
-        } catch (Exception e) {
-            e.printStackTrace();
+    private static TransportDataGenerator.Departure readDeparture(JsonParser parser) {
+        TransportDataGenerator.Departure d = new TransportDataGenerator.Departure();
+        while (parser.next() == JsonParser.Event.KEY_NAME) {
+            String key = parser.getString();
+            switch (key) {
+                case "type" -> d.type = readString(parser);
+                case "from" -> d.from = readString(parser);
+                case "to" -> d.to = readString(parser);
+                case "departureTime" -> d.departureTime = readString(parser);
+                case "duration" -> d.duration = readInt(parser);
+                case "price" -> d.price = readInt(parser);
+                case "minTransferTime" -> d.minTransferTime = readInt(parser);
+                default -> skipValue(parser);
+            }
         }
+        return d;
+    }
 
-        return data;
+    private static String readString(JsonParser parser) {
+        expect(parser, JsonParser.Event.VALUE_STRING);
+        return parser.getString();
+    }
+
+    private static int readInt(JsonParser parser) {
+        expect(parser, JsonParser.Event.VALUE_NUMBER);
+        return parser.getInt();
+    }
+
+    private static void skipValue(JsonParser parser) {
+        JsonParser.Event event = parser.next();
+        if (event == JsonParser.Event.START_OBJECT) {
+            parser.skipObject();
+        } else if (event == JsonParser.Event.START_ARRAY) {
+            parser.skipArray();
+        }
+    }
+
+    private static void expect(JsonParser parser, JsonParser.Event expected) {
+        JsonParser.Event event = parser.next();
+        if (event != expected) {
+            throw new JsonException("Expected " + expected + " but found " + event + " at " + parser.getLocation());
+        }
+    }
+
+    /**
+     * Reads a delta file: {"added": [...], "removed": [...], "changed": [...]}, each a list of
+     * departures in the format of transport_data.json. Missing lists are empty.
+     */
+    public static TransportDelta readDelta(String filename) throws IOException {
+        TransportDelta delta = new TransportDelta();
+        try (JsonReader reader = Json.createReader(openReader(filename))) {
+            JsonObject root = reader.readObject();
+            delta.added = readDepartures(root, "added");
+            delta.removed = readDepartures(root, "removed");
+            delta.changed = readDepartures(root, "changed");
+        } catch (JsonException | ClassCastException e) {
+            throw new IOException("Invalid delta file " + filename + ": " + e.getMessage(), e);
+        }
+        return delta;
+    }
+
+    private static List<TransportDataGenerator.Departure> readDepartures(JsonObject root, String name) {
+        List<TransportDataGenerator.Departure> departures = new ArrayList<>();
+        JsonArray departuresArray = root.getJsonArray(name);
+        if (departuresArray == null) {
+            return departures;
+        }
+        for (JsonValue val : departuresArray) {
+            JsonObject obj = val.asJsonObject();
+            TransportDataGenerator.Departure d = new TransportDataGenerator.Departure();
+            d.type = obj.getString("type");
+            d.from = obj.getString("from");
+            d.to = obj.getString("to");
+            d.departureTime = obj.getString("departureTime");
+            d.duration = obj.getInt("duration", 0);
+            d.price = obj.getInt("price", 0);
+            d.minTransferTime = obj.getInt("minTransferTime", 0);
+            departures.add(d);
+        }
+        return departures;
     }
 
     public static void main(String[] args) {
@@ -0,0 +1,72 @@
+package podaci;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Watches data files on a daemon thread and reports every file that was created or modified.
+ * Editors and generators write a file in several steps, so a change is reported once the file
+ * has been quiet for a short while. All callbacks run on the watcher thread, one at a time.
+ */
+public class TransportDataWatcher implements Closeable {
+    private static final long QUIET_MILLIS = 300;
+
+    private final WatchService watchService;
+    private final Path directory;
+    private final Set<Path> files;
+    private final Consumer<Path> onChange;
+    private final Thread thread;
+
+    public TransportDataWatcher(Path directory, Set<Path> files, Consumer<Path> onChange) throws IOException {
+        this.directory = directory;
+        this.files = files;
+        this.onChange = onChange;
+        this.watchService = directory.getFileSystem().newWatchService();
+        directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        this.thread = new Thread(this::run, "transport-data-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void run() {
+        Set<Path> pending = new LinkedHashSet<>();
+        try {
+            while (true) {
+                // Block until something happens, then keep collecting until the files are quiet
+                WatchKey key = pending.isEmpty() ? watchService.take()
+                        : watchService.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS);
+                if (key == null) {
+                    for (Path file : pending) {
+                        try {
+                            onChange.accept(directory.resolve(file));
+                        } catch (RuntimeException e) {
+                            System.err.println("Error reloading " + file + ": " + e.getMessage());
+                        }
+                    }
+                    pending.clear();
+                    continue;
+                }
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    Object context = event.context();
+                    if (context instanceof Path && files.contains((Path) context)) {
+                        pending.add((Path) context);
+                    }
+                }
+                key.reset();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Closed
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+        thread.interrupt();
+    }
+}
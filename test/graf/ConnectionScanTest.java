@@ -0,0 +1,80 @@
+package graf;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.time.LocalTime;
+import java.util.List;
+
+/**
+ * Regression checks for the earliest-arrival scan. Runs without a test framework:
+ * java graf.ConnectionScanTest exits with status 1 if a check fails.
+ */
+public class ConnectionScanTest {
+    private static int failures;
+
+    public static void main(String[] args) throws IOException {
+        overnightWait();
+        if (failures > 0) {
+            System.out.println(failures + " check(s) failed.");
+            System.exit(1);
+        }
+        System.out.println("All checks passed.");
+    }
+
+    /**
+     * S -> X leaves at 22:00 and arrives at 01:00, after X's only departure of that day (00:30).
+     * The connection is made the next night, so the scan must not stop at the end of the day it reaches X.
+     */
+    private static void overnightWait() throws IOException {
+        Graph graph = build(
+                "{\"type\": \"autobus\", \"from\": \"A_0_0\", \"to\": \"G_0_1\", \"departureTime\": \"22:00\", \"duration\": 180, \"price\": 100, \"minTransferTime\": 5}",
+                "{\"type\": \"autobus\", \"from\": \"A_0_1\", \"to\": \"G_0_2\", \"departureTime\": \"00:30\", \"duration\": 30, \"price\": 100, \"minTransferTime\": 5}");
+        RouteFinder finder = new RouteFinder();
+        LocalTime start = LocalTime.of(8, 0);
+        long expected = 2460;
+
+        List<RouteFinder.Route> fastest = finder.findTopRoutes(graph, "G_0_0", "G_0_2", RouteFinder.Criterion.TIME, start, 1);
+        check("TIME k=1 finds the route", !fastest.isEmpty());
+        if (!fastest.isEmpty()) {
+            check("TIME k=1 total time", fastest.get(0).getTotalTime() == expected);
+        }
+        List<RouteFinder.Route> top = finder.findTopRoutes(graph, "G_0_0", "G_0_2", RouteFinder.Criterion.TIME, start, 2);
+        check("TIME k=2 agrees with k=1", !top.isEmpty() && top.get(0).getTotalTime() == expected);
+
+        OneToAllResult all = finder.findOneToAll(graph, "G_0_0", start);
+        check("one-to-all time", all.getTime(all.indexOf("G_0_2")) == expected);
+
+        DepartureProfile profile = finder.findProfile(graph, "G_0_0", "G_0_2");
+        check("profile time", profile.getTotalTime(start) == expected);
+    }
+
+    private static Graph build(String... departures) throws IOException {
+        File file = File.createTempFile("connection_scan_test", ".json");
+        file.deleteOnExit();
+        try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+            out.println("{");
+            out.println("  \"countryMap\": [[\"G_0_0\", \"G_0_1\", \"G_0_2\"]],");
+            out.println("  \"stations\": [");
+            for (int c = 0; c < 3; c++) {
+                out.println("    {\"city\": \"G_0_" + c + "\", \"busStation\": \"A_0_" + c + "\", \"trainStation\": \"Z_0_" + c + "\"}"
+                        + (c < 2 ? "," : ""));
+            }
+            out.println("  ],");
+            out.println("  \"departures\": [");
+            for (int i = 0; i < departures.length; i++) {
+                out.println("    " + departures[i] + (i < departures.length - 1 ? "," : ""));
+            }
+            out.println("  ]");
+            out.println("}");
+        }
+        return new GraphBuilder().buildFromJson(file.getPath());
+    }
+
+    private static void check(String name, boolean ok) {
+        if (!ok) {
+            failures++;
+            System.out.println("FAILED: " + name);
+        }
+    }
+}